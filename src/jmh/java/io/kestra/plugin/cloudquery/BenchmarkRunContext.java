@@ -0,0 +1,61 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.storages.Storage;
+import org.slf4j.helpers.NOPLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A run context keeping the internal storage and the task state in memory, so that the benchmarks run offline and
+ * only measure the plugin.
+ */
+final class BenchmarkRunContext {
+    private BenchmarkRunContext() {
+    }
+
+    static RunContext create(Map<URI, byte[]> files) throws Exception {
+        Map<String, byte[]> states = new ConcurrentHashMap<>();
+
+        Storage storage = mock(Storage.class);
+        when(storage.getFile(any(URI.class))).thenAnswer(invocation -> {
+            byte[] content = files.get(invocation.<URI>getArgument(0));
+            if (content == null) {
+                throw new FileNotFoundException(invocation.getArgument(0).toString());
+            }
+            return new ByteArrayInputStream(content);
+        });
+
+        RunContext runContext = mock(RunContext.class);
+        when(runContext.storage()).thenReturn(storage);
+        when(runContext.logger()).thenReturn(NOPLogger.NOP_LOGGER);
+        when(runContext.render(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(runContext.getTaskStateFile(anyString(), anyString())).thenAnswer(invocation -> {
+            byte[] content = states.get(invocation.getArgument(0) + "/" + invocation.getArgument(1));
+            if (content == null) {
+                throw new FileNotFoundException(invocation.getArgument(1));
+            }
+            return new ByteArrayInputStream(content);
+        });
+        when(runContext.putTaskStateFile(any(File.class), anyString(), anyString())).thenAnswer(invocation -> {
+            states.put(invocation.getArgument(1) + "/" + invocation.getArgument(2), Files.readAllBytes(invocation.<File>getArgument(0).toPath()));
+            return URI.create("kestra:///state/" + invocation.getArgument(2));
+        });
+        when(runContext.putTaskStateFile(any(byte[].class), anyString(), anyString())).thenAnswer(invocation -> {
+            states.put(invocation.getArgument(1) + "/" + invocation.getArgument(2), invocation.<byte[]>getArgument(0));
+            return URI.create("kestra:///state/" + invocation.getArgument(2));
+        });
+
+        return runContext;
+    }
+}
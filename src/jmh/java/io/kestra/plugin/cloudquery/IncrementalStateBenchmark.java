@@ -0,0 +1,82 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload and download of the incremental state, for an index of {@code cursors} cursors stored by each backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IncrementalStateBenchmark {
+    @Param({"100", "10000", "100000"})
+    private int cursors;
+
+    @Param({"FILE", "KEY_VALUE"})
+    private IncrementalBackend backend;
+
+    private RunContext runContext;
+    private Path database;
+    private Path target;
+    private int version;
+
+    @Setup
+    public void setup() throws Exception {
+        runContext = BenchmarkRunContext.create(Map.of());
+        database = Files.createTempFile("state", ".sqlite");
+        target = Files.createTempFile("restored", ".sqlite");
+
+        try (Connection connection = IncrementalCheckpoint.connect(database)) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE kestra_incremental_table (_cq_sync_time TEXT, _cq_source_name TEXT, key TEXT PRIMARY KEY, value TEXT)");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO kestra_incremental_table VALUES (?, ?, ?, ?)")) {
+                for (int i = 0; i < cursors; i++) {
+                    insert.setString(1, "2024-01-01T00:00:00Z");
+                    insert.setString(2, "aws");
+                    insert.setString(3, "aws_table_" + i + "_us-east-1_123456789012");
+                    insert.setString(4, "2024-01-01T00:00:00.000000Z");
+                    insert.executeUpdate();
+                }
+            }
+            connection.commit();
+        }
+
+        backend.open(runContext, "benchmark.sqlite").persist(database);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(database);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public void restore() throws Exception {
+        backend.open(runContext, "benchmark.sqlite").restore(target);
+    }
+
+    /**
+     * A sync that moved a single cursor forward.
+     */
+    @Benchmark
+    public boolean persistOneChange() throws Exception {
+        IncrementalStore store = backend.open(runContext, "benchmark.sqlite");
+        store.restore(target);
+        try (Connection connection = IncrementalCheckpoint.connect(target);
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE kestra_incremental_table SET value = '" + (version++) + "' WHERE key = 'aws_table_0_us-east-1_123456789012'");
+        }
+        return store.persist(target);
+    }
+}
@@ -0,0 +1,79 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyncConfigsBenchmark {
+    @Param({"10", "100"})
+    private int sources;
+
+    @Param({"10", "200"})
+    private int tables;
+
+    private RunContext runContext;
+    private List<Object> configs;
+    private List<Map<String, Object>> parsed;
+    private File output;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<URI, byte[]> files = new HashMap<>();
+        configs = new ArrayList<>();
+        for (int i = 0; i < sources; i++) {
+            List<String> tableNames = new ArrayList<>();
+            for (int j = 0; j < tables; j++) {
+                tableNames.add("source_" + i + "_table_" + j);
+            }
+
+            Map<String, Object> source = Map.of(
+                "kind", "source",
+                "spec", Map.of(
+                    "name", "source_" + i,
+                    "path", "cloudquery/aws",
+                    "version", "v22.14.0",
+                    "tables", tableNames,
+                    "destinations", List.of("postgresql"),
+                    "spec", Map.of("regions", List.of("us-east-1", "eu-west-1"), "max_retries", 3)
+                )
+            );
+            URI uri = URI.create("kestra:///benchmark/source_" + i + ".yml");
+            files.put(uri, SyncConfigs.OBJECT_MAPPER.writeValueAsBytes(source));
+            configs.add(uri.toString());
+        }
+
+        runContext = BenchmarkRunContext.create(files);
+        parsed = SyncConfigs.read(runContext, configs, true);
+        output = Files.createTempFile("configs", ".yml").toFile();
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> readCached() throws Exception {
+        return SyncConfigs.read(runContext, configs, true);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> readUncached() throws Exception {
+        SyncConfigs.clearCache();
+        return SyncConfigs.read(runContext, configs, true);
+    }
+
+    @Benchmark
+    public File write() throws Exception {
+        SyncConfigs.write(output, parsed);
+        return output;
+    }
+}
@@ -0,0 +1,42 @@
+package io.kestra.plugin.cloudquery;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SyncLogParserBenchmark {
+    private static final int LINES = 10_000;
+
+    private final List<String> lines = new ArrayList<>(LINES);
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < LINES; i++) {
+            if (i % 10 == 0) {
+                lines.add("{\"level\":\"info\",\"module\":\"cli\",\"client\":\"aws\",\"table\":\"aws_table_" + (i % 500) + "\"," +
+                    "\"resources\":" + i + ",\"errors\":0,\"time\":\"2024-01-01T00:00:00Z\",\"message\":\"table sync finished\"}");
+            } else if (i % 10 == 1) {
+                lines.add("Starting sync for: aws (cloudquery/aws@v22.14.0) -> [postgresql (cloudquery/postgresql@v8.0.0)]");
+            } else {
+                lines.add("{\"level\":\"debug\",\"module\":\"aws-src\",\"table\":\"aws_table_" + (i % 500) + "\"," +
+                    "\"time\":\"2024-01-01T00:00:00Z\",\"message\":\"fetching\"}");
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parse(Blackhole blackhole) {
+        SyncLogParser parser = new SyncLogParser();
+        for (String line : lines) {
+            blackhole.consume(parser.parse(line));
+        }
+        blackhole.consume(parser.summary());
+    }
+}
@@ -1,12 +1,24 @@
 package io.kestra.plugin.cloudquery;
 
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.models.annotations.PluginProperty;
 import io.kestra.core.models.tasks.Task;
+import io.kestra.core.runners.RunContext;
 import io.kestra.plugin.scripts.exec.scripts.models.DockerOptions;
+import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
+import io.kestra.plugin.scripts.exec.scripts.runners.CommandsWrapper;
+import io.kestra.plugin.scripts.runner.docker.PullPolicy;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.*;
 import lombok.experimental.SuperBuilder;
 
+import jakarta.validation.constraints.NotNull;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @SuperBuilder
@@ -16,6 +28,8 @@ import java.util.Map;
 @NoArgsConstructor
 abstract class AbstractCloudQueryCommand extends Task {
     protected static final String DEFAULT_IMAGE = "ghcr.io/cloudquery/cloudquery:latest";
+    protected static final String DOCKER_BINARY = "/app/cloudquery";
+    protected static final String FULL_LOG = "cloudquery.log.gz";
 
     @Schema(
         title = "Additional environment variables for the CloudQuery process."
@@ -26,6 +40,25 @@ abstract class AbstractCloudQueryCommand extends Task {
     )
     protected Map<String, String> env;
 
+    @Schema(
+        title = "The runner to use to start CloudQuery.",
+        description = "`DOCKER` starts CloudQuery in a container of the `docker.image` image, " +
+            "`PROCESS` starts the `binary` installed on the worker directly, without any container."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    protected RunnerType runner = RunnerType.DOCKER;
+
+    @Schema(
+        title = "The CloudQuery binary for the `PROCESS` runner.",
+        description = "Either a binary available on the `PATH` of the worker, or the absolute path of the binary."
+    )
+    @PluginProperty(dynamic = true)
+    @NotNull
+    @Builder.Default
+    protected String binary = "cloudquery";
+
     @Schema(
         title = "Docker options for the `DOCKER` runner.",
         defaultValue = "{image=" + DEFAULT_IMAGE + ", pullPolicy=ALWAYS}"
@@ -34,12 +67,136 @@ abstract class AbstractCloudQueryCommand extends Task {
     @Builder.Default
     protected DockerOptions docker = DockerOptions.builder().build();
 
-    protected DockerOptions injectDefaults(DockerOptions original) {
+    @Schema(
+        title = "How long the digest of the Docker image tag is cached on the worker.",
+        description = "When set, the tag of `docker.image` is resolved to a digest through the registry API at most once per period on each worker, " +
+            "and CloudQuery runs on the image pinned to this digest with the `IF_NOT_PRESENT` pull policy (unless it is `NEVER`), " +
+            "so executions don't pull the tag again and all the executions of a period run the same image. " +
+            "Only anonymous registry access is supported; when the digest can't be resolved, the tag is used as configured."
+    )
+    @PluginProperty
+    protected Duration imageDigestTtl;
+
+    @Schema(
+        title = "Cache the plugins downloaded by CloudQuery between executions.",
+        description = "Plugins are cached by kind, path and version, restored in the working directory before the run " +
+            "and only added to the cache when a new version is downloaded. Plugins are cached separately for each operating system and architecture. " +
+            "The cache is disabled when not set."
+    )
+    @PluginProperty
+    protected PluginCacheOptions pluginCache;
+
+    @Schema(
+        title = "Stage the input files from a content-addressed cache of the worker.",
+        description = "The files of Kestra's internal storage are stored once on the worker by hash of their content and copied into the working directory, " +
+            "and are only downloaded the first time they are used on the worker by the tenant and namespace of the flow. " +
+            "With `link`, they are hard linked instead of copied. Input files given inline are written directly, and namespace files are not cached."
+    )
+    @PluginProperty
+    protected FileCacheOptions inputFilesCache;
+
+    @Schema(
+        title = "Limit the CloudQuery log lines sent to Kestra's logs.",
+        description = "Each level is rate limited, lines repeated within an interval are only counted once over a threshold and summarized, " +
+            "and the last dropped lines are logged before the next error. The full log can be stored compressed in Kestra's internal storage. " +
+            "Every line is logged when not set."
+    )
+    @PluginProperty
+    protected LogSamplingOptions logSampling;
+
+    @Schema(
+        title = "Whether to sample the CPU, memory, network and disk used by CloudQuery and emit them as metrics.",
+        description = "With the `DOCKER` runner, the container statistics are sampled every second by a shell loop, so the image must provide `/bin/sh`. " +
+            "With the `PROCESS` runner, the CloudQuery processes are read from `/proc`, on Linux only and without the network."
+    )
+    @PluginProperty
+    @Builder.Default
+    protected boolean resourceMetrics = false;
+
+    protected PluginCache pluginCache(RunContext runContext) throws IllegalVariableEvaluationException {
+        return this.pluginCache == null ? null : PluginCache.of(runContext, this.pluginCache, this.runner);
+    }
+
+    /**
+     * Stage the input files in the working directory through the worker cache, if enabled.
+     *
+     * @return the input files left to stage by the commands wrapper
+     */
+    protected Object stageInputFiles(RunContext runContext, Path workingDirectory, Object inputFiles) throws IllegalVariableEvaluationException, IOException {
+        if (this.inputFilesCache == null) {
+            return inputFiles;
+        }
+
+        FileStagingCache.of(runContext, this.inputFilesCache).stage(runContext, workingDirectory, inputFiles, this.inputFilesCache.isLink());
+        return null;
+    }
+
+    protected LogSampler logSampler(RunContext runContext, String... tags) throws IOException {
+        return this.logSampling == null ? null : new LogSampler(runContext, this.logSampling, tags);
+    }
+
+    /**
+     * Add the full log uploaded by the sampler, if any, to the output files.
+     */
+    protected static Map<String, URI> withFullLog(Map<String, URI> outputFiles, String name, URI log) {
+        if (log == null) {
+            return outputFiles;
+        }
+
+        Map<String, URI> result = new HashMap<>(outputFiles == null ? Map.of() : outputFiles);
+        result.put(name, log);
+        return result;
+    }
+
+    protected ResourceSampler resourceSampler(RunContext runContext, Path workingDirectory) {
+        return this.resourceMetrics ? ResourceSampler.start(runContext, this.runner, workingDirectory) : null;
+    }
+
+    /**
+     * The shell commands to run before CloudQuery to sample the container, if needed.
+     */
+    protected List<String> resourceScript() {
+        return this.resourceMetrics && this.runner != RunnerType.PROCESS ? ResourceSampler.script() : List.of();
+    }
+
+    protected static String quote(String value) {
+        return "'" + value.replace("'", "'\"'\"'") + "'";
+    }
+
+    protected CommandsWrapper withRunner(RunContext runContext, CommandsWrapper commands) throws IllegalVariableEvaluationException {
+        if (this.runner == RunnerType.PROCESS) {
+            return commands.withRunnerType(RunnerType.PROCESS);
+        }
+
+        return commands
+            .withRunnerType(RunnerType.DOCKER)
+            .withDockerOptions(injectDefaults(runContext, getDocker()));
+    }
+
+    /**
+     * The CloudQuery binary to call from a shell script.
+     */
+    protected String binary(RunContext runContext) throws IllegalVariableEvaluationException {
+        return this.runner == RunnerType.PROCESS ? runContext.render(this.binary) : DOCKER_BINARY;
+    }
+
+    protected DockerOptions injectDefaults(RunContext runContext, DockerOptions original) throws IllegalVariableEvaluationException {
         var builder = original.toBuilder();
         if (original.getImage() == null) {
             builder.image(DEFAULT_IMAGE);
         }
 
+        if (this.imageDigestTtl != null) {
+            String image = original.getImage() == null ? DEFAULT_IMAGE : runContext.render(original.getImage());
+            ImageDigests.INSTANCE.pin(image, this.imageDigestTtl).ifPresent(pinned -> {
+                runContext.logger().debug("Using the image '{}' for '{}'", pinned, image);
+                builder.image(pinned);
+                if (original.getPullPolicy() != PullPolicy.NEVER) {
+                    builder.pullPolicy(PullPolicy.IF_NOT_PRESENT);
+                }
+            });
+        }
+
         return builder.build();
     }
 }
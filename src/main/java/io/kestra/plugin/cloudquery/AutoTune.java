@@ -0,0 +1,276 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.plugin.scripts.exec.scripts.models.DockerOptions;
+import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Tune the source {@code concurrency} and the destination {@code batch_size} and {@code batch_size_bytes} of a sync
+ * from the resources of its runner and the results of the previous runs, stored in the task state.
+ * <p>
+ * The settings grow additively while each run is the fastest so far. When the throughput drops, they go back to the
+ * best known settings and stay there. They are halved when the previous run was killed for lack of memory or came close
+ * to the memory limit, which also resumes the search.
+ * <p>
+ * Runs syncing too few rows or too quickly, like an incremental run with nothing new, say nothing about the settings:
+ * their throughput is not compared and the settings are kept for the next run.
+ */
+class AutoTune {
+    static final String STATE_NAME = "CloudQueryAutoTune";
+    static final int OUT_OF_MEMORY_EXIT_CODE = 137;
+
+    private static final String STATE_FILE = "autotune.json";
+    private static final ObjectMapper MAPPER = JacksonMapper.ofJson();
+
+    private static final int MIN_CONCURRENCY = 100;
+    private static final int CONCURRENCY_PER_CPU = 10_000;
+    private static final int MAX_CONCURRENCY_PER_CPU = 50_000;
+    private static final int MIN_BATCH_SIZE = 1_000;
+    private static final int MAX_BATCH_SIZE = 100_000;
+    private static final long MIN_BATCH_SIZE_BYTES = 4L * 1024 * 1024;
+    private static final long MAX_BATCH_SIZE_BYTES = 256L * 1024 * 1024;
+    // a rough estimation of the size of a row, to derive the batch size from the batch size in bytes
+    private static final int ROW_BYTES = 1024;
+    private static final double MEMORY_PRESSURE = 0.9;
+    private static final double REGRESSION = 0.9;
+    private static final long MIN_ROWS = 10_000;
+    private static final Duration MIN_DURATION = Duration.ofSeconds(30);
+
+    private final RunContext runContext;
+    private final Limits limits;
+    private final Run last;
+    private final Tuning tuning;
+    private final boolean settled;
+
+    private AutoTune(RunContext runContext, Limits limits, Run last) {
+        this.runContext = runContext;
+        this.limits = limits;
+        this.last = last;
+        this.tuning = next(limits, last);
+        this.settled = settled(last);
+    }
+
+    /**
+     * Load the previous run and compute the settings of this run.
+     *
+     * @param processes the number of CloudQuery processes sharing the resources of the runner
+     */
+    static AutoTune load(RunContext runContext, RunnerType runner, DockerOptions docker, int processes) throws IOException {
+        Limits limits = Limits.of(runner, docker, processes);
+
+        Run last = null;
+        try (InputStream input = runContext.getTaskStateFile(STATE_NAME, STATE_FILE)) {
+            last = MAPPER.readValue(input, Run.class);
+        } catch (FileNotFoundException e) {
+            // first run
+        }
+
+        AutoTune autoTune = new AutoTune(runContext, limits, last);
+        runContext.logger().info("Auto-tuned the sync with a concurrency of {}, a batch size of {} rows and {} bytes",
+            autoTune.tuning.concurrency(), autoTune.tuning.batchSize(), autoTune.tuning.batchSizeBytes());
+        return autoTune;
+    }
+
+    Tuning tuning() {
+        return tuning;
+    }
+
+    /**
+     * Fill the tuned fields the configurations don't already set.
+     */
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> apply(List<Map<String, Object>> configs) {
+        List<Map<String, Object>> results = new ArrayList<>(configs.size());
+        for (Map<String, Object> config : configs) {
+            if (!(config.get("spec") instanceof Map)) {
+                results.add(config);
+                continue;
+            }
+
+            Map<String, Object> spec = new HashMap<>((Map<String, Object>) config.get("spec"));
+            Map<String, Object> pluginSpec = spec.get("spec") instanceof Map ? new HashMap<>((Map<String, Object>) spec.get("spec")) : new HashMap<>();
+            if (Objects.equals(config.get("kind"), "source")) {
+                pluginSpec.putIfAbsent("concurrency", tuning.concurrency());
+            } else if (Objects.equals(config.get("kind"), "destination")) {
+                pluginSpec.putIfAbsent("batch_size", tuning.batchSize());
+                pluginSpec.putIfAbsent("batch_size_bytes", tuning.batchSizeBytes());
+            } else {
+                results.add(config);
+                continue;
+            }
+            spec.put("spec", pluginSpec);
+
+            Map<String, Object> result = new HashMap<>(config);
+            result.put("spec", spec);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Record a successful run.
+     *
+     * @param peakMemoryBytes the peak memory of the run, null if unknown
+     */
+    void success(SyncSummary summary, Long peakMemoryBytes) throws IOException {
+        Double rowsPerSecond = rowsPerSecond(summary);
+        if (rowsPerSecond == null) {
+            runContext.logger().info("The sync is too small to tune the settings, keeping them for the next run");
+        }
+        Best best = rowsPerSecond == null ? (last == null ? null : last.best()) : best(rowsPerSecond);
+        save(new Run(tuning, rowsPerSecond, peakMemoryBytes, limits.memoryBytes(), false, settled, best));
+    }
+
+    /**
+     * The throughput of a run, or null if the run is too small for its throughput to be compared.
+     */
+    static Double rowsPerSecond(SyncSummary summary) {
+        if (summary.getRows() < MIN_ROWS || summary.getDuration() == null || summary.getDuration().compareTo(MIN_DURATION) < 0) {
+            return null;
+        }
+        return summary.getRowsPerSecond();
+    }
+
+    /**
+     * Record a failed run, only kept when the run was killed for lack of memory.
+     */
+    void failure(Integer exitCode, Long peakMemoryBytes) throws IOException {
+        if (exitCode != null && exitCode == OUT_OF_MEMORY_EXIT_CODE) {
+            save(new Run(tuning, null, peakMemoryBytes, limits.memoryBytes(), true, false, last == null ? null : last.best()));
+        }
+    }
+
+    private Best best(double rowsPerSecond) {
+        if (last == null || last.best() == null || rowsPerSecond > last.best().rowsPerSecond()) {
+            return new Best(tuning, rowsPerSecond);
+        }
+        return last.best();
+    }
+
+    private void save(Run run) throws IOException {
+        runContext.putTaskStateFile(MAPPER.writeValueAsBytes(run), STATE_NAME, STATE_FILE);
+    }
+
+    static Tuning next(Limits limits, Run last) {
+        Tuning initial = initial(limits);
+        if (last == null || last.tuning() == null) {
+            return initial;
+        }
+
+        Tuning previous = last.tuning();
+        if (memoryPressure(last)) {
+            return clamp(new Tuning(previous.concurrency() / 2, previous.batchSize() / 2, previous.batchSizeBytes() / 2), limits);
+        }
+
+        if (regression(last)) {
+            return clamp(last.best().tuning(), limits);
+        }
+
+        // hold the settings once settled, or when the last run was not the fastest so far
+        boolean fastest = last.best() != null && last.best().tuning().equals(previous);
+        if (last.settled() || last.rowsPerSecond() == null || !fastest) {
+            return clamp(previous, limits);
+        }
+
+        return clamp(new Tuning(
+            previous.concurrency() + initial.concurrency() / 4,
+            previous.batchSize() + initial.batchSize() / 4,
+            previous.batchSizeBytes() + initial.batchSizeBytes() / 4
+        ), limits);
+    }
+
+    static boolean settled(Run last) {
+        return last != null && !memoryPressure(last) && (last.settled() || regression(last));
+    }
+
+    private static boolean memoryPressure(Run last) {
+        return last.outOfMemory() ||
+            (last.peakMemoryBytes() != null && last.memoryBytes() != null && last.peakMemoryBytes() > last.memoryBytes() * MEMORY_PRESSURE);
+    }
+
+    private static boolean regression(Run last) {
+        return last.rowsPerSecond() != null && last.best() != null && last.rowsPerSecond() < last.best().rowsPerSecond() * REGRESSION;
+    }
+
+    static Tuning initial(Limits limits) {
+        long batchSizeBytes = limits.memoryBytes() / 16;
+        return clamp(new Tuning(
+            limits.cpus() * CONCURRENCY_PER_CPU,
+            (int) Math.min(Integer.MAX_VALUE, batchSizeBytes / ROW_BYTES),
+            batchSizeBytes
+        ), limits);
+    }
+
+    private static Tuning clamp(Tuning tuning, Limits limits) {
+        long maxBatchSizeBytes = Math.max(MIN_BATCH_SIZE_BYTES, Math.min(MAX_BATCH_SIZE_BYTES, limits.memoryBytes() / 4));
+        return new Tuning(
+            Math.max(MIN_CONCURRENCY, Math.min(tuning.concurrency(), limits.cpus() * MAX_CONCURRENCY_PER_CPU)),
+            Math.max(MIN_BATCH_SIZE, Math.min(tuning.batchSize(), MAX_BATCH_SIZE)),
+            Math.max(MIN_BATCH_SIZE_BYTES, Math.min(tuning.batchSizeBytes(), maxBatchSizeBytes))
+        );
+    }
+
+    /**
+     * Parse a Docker memory size, like {@code 512m} or {@code 2g}.
+     */
+    static long parseBytes(String size) {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        if (value.endsWith("b")) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        long unit = switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            case 't' -> 1024L * 1024 * 1024 * 1024;
+            default -> 1L;
+        };
+        if (unit != 1L) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        return (long) (Double.parseDouble(value) * unit);
+    }
+
+    record Tuning(int concurrency, int batchSize, long batchSizeBytes) {
+    }
+
+    record Best(Tuning tuning, double rowsPerSecond) {
+    }
+
+    record Run(Tuning tuning, Double rowsPerSecond, Long peakMemoryBytes, Long memoryBytes, boolean outOfMemory, boolean settled, Best best) {
+    }
+
+    record Limits(int cpus, long memoryBytes) {
+        /**
+         * The limits of each of the given number of processes: the host is shared between them, while each container
+         * has its own explicit limits.
+         */
+        static Limits of(RunnerType runner, DockerOptions docker, int processes) {
+            int share = Math.max(1, processes);
+            int cpus = Math.max(1, Runtime.getRuntime().availableProcessors() / share);
+            long memory = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalMemorySize() / share;
+
+            if (runner != RunnerType.PROCESS && docker != null) {
+                if (docker.getCpu() != null && docker.getCpu().getCpus() != null) {
+                    cpus = (int) Math.max(1, docker.getCpu().getCpus());
+                }
+                if (docker.getMemory() != null && docker.getMemory().getMemory() != null) {
+                    memory = parseBytes(docker.getMemory().getMemory());
+                }
+            }
+
+            return new Limits(cpus, memory);
+        }
+    }
+}
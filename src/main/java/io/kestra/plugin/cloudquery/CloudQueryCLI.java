@@ -1,24 +1,31 @@
 package io.kestra.plugin.cloudquery;
 
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.models.annotations.Example;
 import io.kestra.core.models.annotations.Plugin;
 import io.kestra.core.models.annotations.PluginProperty;
 import io.kestra.core.models.tasks.*;
+import io.kestra.core.models.executions.metrics.Timer;
 import io.kestra.core.models.tasks.runners.ScriptService;
+import io.kestra.core.models.tasks.runners.TaskException;
 import io.kestra.core.runners.RunContext;
 import io.kestra.plugin.scripts.exec.scripts.models.DockerOptions;
-import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
 import io.kestra.plugin.scripts.exec.scripts.models.ScriptOutput;
 import io.kestra.plugin.scripts.exec.scripts.runners.CommandsWrapper;
 import io.swagger.v3.oas.annotations.media.Schema;
-import lombok.EqualsAndHashCode;
-import lombok.Getter;
-import lombok.NoArgsConstructor;
-import lombok.ToString;
+import lombok.*;
 import lombok.experimental.SuperBuilder;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
-import java.util.List;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Stream;
 
 @SuperBuilder
 @ToString
@@ -69,18 +76,59 @@ import java.util.List;
                               connection_string: hn.db
                     commands:
                       - cloudquery sync config.yml --log-console"""
+        ),
+        @Example(
+            title = "Run independent syncs concurrently in the same container, stopping them all as soon as one fails.",
+            full = true,
+            code = """
+                id: cloudquery_sync_groups
+                namespace: dev
+                tasks:
+                  - id: syncs
+                    type: io.kestra.plugin.cloudquery.CloudQueryCLI
+                    env:
+                      CLOUDQUERY_API_KEY: "{{ secret('CLOUDQUERY_API_KEY') }}"
+                    namespaceFiles:
+                      enabled: true
+                    failFast: true
+                    groups:
+                      - id: aws
+                        commands:
+                          - cloudquery sync aws.yml destination.yml --log-console --log-format json
+                      - id: gcp
+                        commands:
+                          - cloudquery sync gcp.yml destination.yml --log-console --log-format json"""
         )
     }
 )
 public class CloudQueryCLI extends AbstractCloudQueryCommand implements RunnableTask<ScriptOutput>, NamespaceFilesInterface, InputFilesInterface, OutputFilesInterface {
+    private static final String GROUPS_DIRECTORY = ".kestra_groups";
 
     @Schema(
-        title = "List of CloudQuery commands to run."
+        title = "List of CloudQuery commands to run.",
+        description = "Add `--log-console --log-format json` to the `sync` commands to get per-table metrics. " +
+            "When `groups` are set, these commands run first."
     )
     @PluginProperty(dynamic = true)
-    @NotEmpty
     protected List<String> commands;
 
+    @Schema(
+        title = "Groups of CloudQuery commands to run concurrently.",
+        description = "The commands of a group run one after another and stop at the first failure, while the groups run concurrently. " +
+            "The logs of each group are prefixed by its id, and the exit code and duration of each group are available in the `groups` output variable."
+    )
+    @PluginProperty
+    @Valid
+    protected List<CommandGroup> groups;
+
+    @Schema(
+        title = "Whether to stop all the groups as soon as one of them fails.",
+        description = "Otherwise, all the groups run to completion before the task fails."
+    )
+    @PluginProperty
+    @Builder.Default
+    protected boolean failFast = false;
+
     private NamespaceFiles namespaceFiles;
 
     private Object inputFiles;
@@ -89,29 +137,216 @@ public class CloudQueryCLI extends AbstractCloudQueryCommand implements Runnable
 
     @Override
     public ScriptOutput run(RunContext runContext) throws Exception {
-        CommandsWrapper commands = new CommandsWrapper(runContext)
+        List<CommandGroup> groups = this.groups == null ? List.of() : this.groups;
+        if ((this.commands == null || this.commands.isEmpty()) && groups.isEmpty()) {
+            throw new IllegalArgumentException("At least one of `commands` or `groups` is required");
+        }
+        Set<String> ids = new LinkedHashSet<>();
+        groups.forEach(group -> {
+            if (!ids.add(group.getId())) {
+                throw new IllegalArgumentException("Duplicate group id '" + group.getId() + "'");
+            }
+        });
+
+        List<String> script = new ArrayList<>(this.commands == null ? List.of() : this.commands);
+        if (!groups.isEmpty()) {
+            script.add(groupsScript(groups));
+        }
+
+        LogSampler logSampler = logSampler(runContext);
+        SyncLogConsumer logConsumer = new SyncLogConsumer(runContext, ids, logSampler);
+        CommandsWrapper commands = withRunner(runContext, new CommandsWrapper(runContext))
             .withWarningOnStdErr(true)
-            .withRunnerType(RunnerType.DOCKER)
-            .withDockerOptions(injectDefaults(getDocker()))
+            .withLogConsumer(logConsumer)
             .withCommands(
                 ScriptService.scriptCommands(
                     List.of("/bin/sh", "-c"),
-                    List.of("alias cloudquery='/app/cloudquery'"),
-                    this.commands
+                    Stream.concat(
+                        resourceScript().stream(),
+                        Stream.of("alias cloudquery='" + binary(runContext) + "'")
+                    ).toList(),
+                    script
                 )
             )
             .withEnv(this.getEnv())
-            .withInputFiles(inputFiles)
+            .withNamespaceFiles(namespaceFiles)
             .withOutputFiles(outputFiles);
+        commands = commands.withInputFiles(stageInputFiles(runContext, commands.getWorkingDirectory(), inputFiles));
+
+        PluginCache pluginCache = this.pluginCache(runContext);
+        if (pluginCache != null) {
+            pluginCache.restore(commands.getWorkingDirectory(), null);
+        }
+
+        ResourceSampler sampler = resourceSampler(runContext, commands.getWorkingDirectory());
+        ScriptOutput run;
+        URI fullLog = null;
+        try {
+            run = commands.run();
+        } finally {
+            if (sampler != null) {
+                ResourceUsage usage = sampler.usage();
+                if (usage != null) {
+                    usage.metrics(runContext);
+                }
+            }
+            if (logSampler != null) {
+                fullLog = logSampler.close();
+            }
+        }
+        if (pluginCache != null) {
+            pluginCache.refresh(commands.getWorkingDirectory());
+        }
+
+        // metrics are only available when the commands log in JSON, with `--log-console --log-format json`
+        SyncSummary summary = logConsumer.summary();
+        if (!summary.getTables().isEmpty()) {
+            SyncLogConsumer.metrics(runContext, summary);
+        }
+        if (groups.isEmpty()) {
+            if (fullLog == null) {
+                return run;
+            }
+            return ScriptOutput.builder()
+                .vars(run.getVars())
+                .exitCode(run.getExitCode())
+                .outputFiles(withFullLog(run.getOutputFiles(), FULL_LOG, fullLog))
+                .stdOutLineCount(run.getStdOutLineCount())
+                .stdErrLineCount(run.getStdErrLineCount())
+                .warningOnStdErr(run.getWarningOnStdErr())
+                .build();
+        }
+
+        Path groupsDirectory = commands.getWorkingDirectory().resolve(GROUPS_DIRECTORY);
+        Map<String, Object> results = new LinkedHashMap<>();
+        List<String> failed = new ArrayList<>();
+        for (CommandGroup group : groups) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            Path exitFile = groupsDirectory.resolve(group.getId() + ".exit");
+            if (Files.exists(exitFile)) {
+                String[] exit = Files.readString(exitFile).trim().split("\\s+");
+                int exitCode = Integer.parseInt(exit[0]);
+                Duration duration = Duration.ofSeconds(Long.parseLong(exit[1]));
+                result.put("exitCode", exitCode);
+                result.put("duration", duration.toString());
+                runContext.metric(Timer.of("group.duration", duration, "group", group.getId()));
+                if (exitCode != 0) {
+                    failed.add(group.getId());
+                }
+            } else {
+                // stopped by another failed group
+                result.put("exitCode", null);
+                failed.add(group.getId());
+            }
 
-        return commands.run();
+            SyncSummary groupSummary = logConsumer.summary(group.getId());
+            if (!groupSummary.getTables().isEmpty()) {
+                SyncLogConsumer.metrics(runContext, groupSummary, "group", group.getId());
+            }
+            results.put(group.getId(), result);
+        }
+
+        if (!failed.isEmpty()) {
+            runContext.logger().error("{} groups out of {} failed or were stopped: {}", failed.size(), groups.size(), failed);
+            throw new TaskException(1, run.getStdOutLineCount(), run.getStdErrLineCount());
+        }
+
+        Map<String, Object> vars = new HashMap<>(run.getVars() == null ? Map.of() : run.getVars());
+        vars.put("groups", results);
+        return ScriptOutput.builder()
+            .vars(vars)
+            .exitCode(run.getExitCode())
+            .outputFiles(withFullLog(run.getOutputFiles(), FULL_LOG, fullLog))
+            .stdOutLineCount(run.getStdOutLineCount())
+            .stdErrLineCount(run.getStdErrLineCount())
+            .warningOnStdErr(run.getWarningOnStdErr())
+            .build();
+    }
+
+    /**
+     * The shell script starting each group in the background, writing its exit code and duration in seconds in
+     * {@code <id>.exit}, then waiting for all the groups or stopping them all at the first failure.
+     */
+    private String groupsScript(List<CommandGroup> groups) {
+        StringBuilder script = new StringBuilder();
+        script.append("mkdir -p ./").append(GROUPS_DIRECTORY).append("\n");
+        script.append("kestra_pids=\"\"\n");
+        for (CommandGroup group : groups) {
+            String exitFile = "./" + GROUPS_DIRECTORY + "/" + group.getId() + ".exit";
+            script.append("( kestra_start=$(date +%s); { (\nset -e\n")
+                .append(String.join("\n", group.getCommands()))
+                .append("\n); echo \"$? $(( $(date +%s) - kestra_start ))\" > ").append(quote(exitFile + ".tmp"))
+                .append(" && mv ").append(quote(exitFile + ".tmp")).append(" ").append(quote(exitFile))
+                .append("; } 2>&1 | while IFS= read -r line; do printf '[%s] %s\\n' ").append(quote(group.getId())).append(" \"$line\"; done ) &\n");
+            script.append("kestra_pids=\"$kestra_pids $!\"\n");
+        }
+
+        if (failFast) {
+            StringBuilder files = new StringBuilder();
+            groups.forEach(group -> files.append(" ").append(quote("./" + GROUPS_DIRECTORY + "/" + group.getId() + ".exit")));
+            // without job control in a non-interactive shell, the processes of a group are found from /proc to be stopped
+            script.append("""
+                kestra_tree() {
+                  for s in /proc/[0-9]*/stat; do
+                    read -r kestra_pid kestra_comm kestra_state kestra_ppid kestra_rest < "$s" 2>/dev/null || continue
+                    if [ "$kestra_ppid" = "$1" ]; then kestra_tree "$kestra_pid"; fi
+                  done
+                  echo "$1"
+                }
+                while :; do
+                  kestra_running=0
+                  kestra_failed=0
+                  for f in%s; do
+                    if [ -f "$f" ]; then
+                      read kestra_code kestra_duration < "$f"
+                      if [ "$kestra_code" != "0" ]; then kestra_failed=1; fi
+                    else
+                      kestra_running=1
+                    fi
+                  done
+                  if [ "$kestra_failed" = "1" ]; then
+                    for p in $kestra_pids; do kill -TERM $(kestra_tree "$p") 2>/dev/null; done
+                    break
+                  fi
+                  if [ "$kestra_running" = "0" ]; then break; fi
+                  sleep 1
+                done
+                """.formatted(files));
+        }
+
+        script.append("wait\n");
+        // the exit code of each group is reported by its exit file
+        script.append("exit 0");
+        return script.toString();
+    }
+
+    @Builder
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CommandGroup {
+        @Schema(
+            title = "The id of the group.",
+            description = "Used to prefix the logs and tag the metrics of the group."
+        )
+        @PluginProperty
+        @NotNull
+        @Pattern(regexp = "^[a-zA-Z0-9_-]+$")
+        private String id;
+
+        @Schema(
+            title = "The commands of the group, run one after another."
+        )
+        @PluginProperty(dynamic = true)
+        @NotEmpty
+        private List<String> commands;
     }
 
     @Override
-    protected DockerOptions injectDefaults(DockerOptions original) {
+    protected DockerOptions injectDefaults(RunContext runContext, DockerOptions original) throws IllegalVariableEvaluationException {
         if (original.getEntryPoint() == null || original.getEntryPoint().isEmpty()) {
             original = original.toBuilder().entryPoint(List.of("")).build();
         }
-        return super.injectDefaults(original);
+        return super.injectDefaults(runContext, original);
     }
 }
@@ -0,0 +1,41 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.models.annotations.PluginProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import jakarta.validation.constraints.NotNull;
+
+@Builder
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileCacheOptions {
+    @Schema(
+        title = "The directory of the worker host where to store the cached files.",
+        description = "Must be on the same file system as the working directories of the tasks for the files to be hard linked with `link`, " +
+            "otherwise they are copied. Defaults to a directory in the temporary directory of the worker. " +
+            "It is created only accessible to the worker user, and an existing directory owned by another user or accessible to other users is refused."
+    )
+    @PluginProperty(dynamic = true)
+    private String directory;
+
+    @Schema(
+        title = "The maximum size of the cache, for example `512MB` or `10GB`.",
+        description = "The least recently used files are evicted when the cache grows beyond this size."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    private String maxSize = "10GB";
+
+    @Schema(
+        title = "Whether to hard link the cached files into the working directory instead of copying them.",
+        description = "Saves the copy of large files, but the staged files share their content with the cache and the other executions of the worker. " +
+            "Only enable it when the commands never modify their input files: the files are read-only, but a container running as root can still write them. " +
+            "A cached file modified in place is detected and removed from the cache the next time it is used."
+    )
+    @PluginProperty
+    @Builder.Default
+    private boolean link = false;
+}
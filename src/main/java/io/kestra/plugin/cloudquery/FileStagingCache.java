@@ -0,0 +1,290 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Worker-local, content-addressed cache of the input files of Kestra's internal storage, copied or hard linked in the
+ * working directory. Input files given inline are written straight to the working directory.
+ * <p>
+ * Files are stored once by SHA-256 of their content, in a directory only accessible to the worker user, and evicted
+ * least recently used first when the cache grows beyond its maximum size. The content of the files left by a previous
+ * worker process is checked against their hash the first time they are used. Files of Kestra's internal storage are
+ * immutable, so the hash of their content is also remembered by URI and a file already cached is not downloaded again. The URIs are remembered for each tenant and namespace, as
+ * the internal storage only lets an execution read the files of its own namespace. Cached files are read-only and
+ * shared by every execution of the worker, so they are only hard linked when the task asks for it.
+ */
+@Slf4j
+final class FileStagingCache {
+    private static final Map<Path, FileStagingCache> INSTANCES = new ConcurrentHashMap<>();
+    private static final int MAX_URIS = 10_000;
+    private static final String STORAGE_SCHEME = "kestra://";
+    // namespace files can be updated under the same URI
+    private static final String NAMESPACE_FILES = "/_files/";
+
+    private final Path directory;
+    private final long maxSize;
+    private final Map<String, Blob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> uris = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_URIS;
+        }
+    };
+    private long size;
+    private boolean loaded;
+
+    private FileStagingCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    static FileStagingCache of(RunContext runContext, FileCacheOptions options) throws IllegalVariableEvaluationException, IOException {
+        Path directory = options.getDirectory() == null ?
+            Path.of(System.getProperty("java.io.tmpdir"), "kestra-cloudquery-files") :
+            Path.of(runContext.render(options.getDirectory()));
+        long maxSize = AutoTune.parseBytes(options.getMaxSize());
+
+        FileStagingCache cache = INSTANCES.computeIfAbsent(directory.toAbsolutePath().normalize(), path -> new FileStagingCache(path, maxSize));
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * Stage the input files in the working directory, the same way as the {@code inputFiles} of the script tasks: a map of
+     * file names to either the content of the file or the URI of a file in Kestra's internal storage, or its JSON.
+     *
+     * @param link whether to hard link the cached files instead of copying them, when the task never modifies them
+     */
+    @SuppressWarnings("unchecked")
+    void stage(RunContext runContext, Path workingDirectory, Object inputFiles, boolean link) throws IllegalVariableEvaluationException, IOException {
+        if (inputFiles == null) {
+            return;
+        }
+
+        Map<String, String> files;
+        if (inputFiles instanceof String json) {
+            files = JacksonMapper.ofJson().readValue(runContext.render(json), new TypeReference<Map<String, String>>() {
+            });
+        } else if (inputFiles instanceof Map<?, ?> map) {
+            files = (Map<String, String>) map;
+        } else {
+            throw new IllegalVariableEvaluationException("Invalid inputFiles type '" + inputFiles.getClass() + "'");
+        }
+
+        int linked = 0;
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Path target = workingDirectory.resolve(runContext.render(file.getKey())).normalize();
+            if (!target.startsWith(workingDirectory)) {
+                throw new IllegalArgumentException("The input file '" + file.getKey() + "' is outside the working directory");
+            }
+            Files.createDirectories(target.getParent());
+            Files.deleteIfExists(target);
+
+            String content = runContext.render(file.getValue());
+            if (!content.startsWith(STORAGE_SCHEME)) {
+                Files.writeString(target, content);
+            } else if (stage(runContext, URI.create(content), target, link)) {
+                linked++;
+            }
+        }
+
+        runContext.logger().debug("Staged {} input files, {} of them by hard link", files.size(), linked);
+    }
+
+    private boolean stage(RunContext runContext, URI uri, Path target, boolean link) throws IOException {
+        // the file can be evicted by another execution between the lookup and the link
+        while (true) {
+            Path blob = blob(runContext, uri);
+            synchronized (this) {
+                if (Files.exists(blob)) {
+                    if (link) {
+                        return link(blob, target);
+                    }
+                    copy(blob, target);
+                    return false;
+                }
+            }
+        }
+    }
+
+    private Path blob(RunContext runContext, URI uri) throws IOException {
+        String key = uriKey(runContext, uri);
+        boolean immutable = !uri.toString().contains(NAMESPACE_FILES);
+        if (immutable) {
+            String hash;
+            synchronized (this) {
+                hash = uris.get(key);
+            }
+            Path blob = hash == null ? null : lookup(hash);
+            if (blob != null) {
+                return blob;
+            }
+        }
+
+        Path temporary = Files.createTempFile(directory, "download", ".tmp");
+        MessageDigest digest = IncrementalState.newDigest();
+        try (InputStream input = runContext.storage().getFile(uri);
+             OutputStream output = new DigestOutputStream(Files.newOutputStream(temporary), digest)) {
+            input.transferTo(output);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        if (immutable) {
+            synchronized (this) {
+                uris.put(key, hash);
+            }
+        }
+
+        Path cached = lookup(hash);
+        if (cached != null) {
+            Files.deleteIfExists(temporary);
+            return cached;
+        }
+        return add(hash, temporary);
+    }
+
+    /**
+     * The key of a URI of the internal storage, scoped to the tenant and namespace of the execution, so that a URI that
+     * was read by an execution is never served from the cache to an execution that isn't allowed to read it.
+     */
+    @SuppressWarnings("unchecked")
+    static String uriKey(RunContext runContext, URI uri) {
+        Map<String, Object> flow = runContext.getVariables().get("flow") instanceof Map<?, ?> map ? (Map<String, Object>) map : Map.of();
+        return flow.get("tenantId") + "/" + flow.get("namespace") + "/" + uri;
+    }
+
+    /**
+     * The cached file of the given hash, if it is still in the cache and wasn't modified since it was added. The content
+     * of a file left by a previous worker process is checked against its hash the first time.
+     */
+    private synchronized Path lookup(String hash) throws IOException {
+        Blob blob = blobs.get(hash);
+        if (blob == null) {
+            return null;
+        }
+
+        if (!Files.exists(blob.path()) || Files.size(blob.path()) != blob.size() || !Files.getLastModifiedTime(blob.path()).equals(blob.modified()) ||
+            (!blob.verified() && !IncrementalState.sha256(blob.path()).equals(hash))) {
+            log.warn("Cached file '{}' was modified, removing it from the cache", blob.path());
+            remove(hash);
+            return null;
+        }
+
+        if (!blob.verified()) {
+            blobs.put(hash, new Blob(blob.path(), blob.size(), blob.modified(), true));
+        }
+        return blob.path();
+    }
+
+    private synchronized Path add(String hash, Path temporary) throws IOException {
+        Path path = directory.resolve(hash);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        path.toFile().setWritable(false, false);
+
+        Blob previous = blobs.put(hash, new Blob(path, Files.size(path), Files.getLastModifiedTime(path), true));
+        size += Files.size(path) - (previous == null ? 0 : previous.size());
+        evict(hash);
+        return path;
+    }
+
+    private void evict(String keep) throws IOException {
+        Iterator<Map.Entry<String, Blob>> iterator = blobs.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Blob> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+
+            // already staged hard links keep their content
+            Files.deleteIfExists(eldest.getValue().path());
+            size -= eldest.getValue().size();
+            iterator.remove();
+        }
+    }
+
+    private void remove(String hash) throws IOException {
+        Blob blob = blobs.remove(hash);
+        if (blob != null) {
+            Files.deleteIfExists(blob.path());
+            size -= blob.size();
+        }
+    }
+
+    /**
+     * Link the cached file to the target, or copy it if it can't be linked.
+     *
+     * @return whether the file was linked
+     */
+    private static boolean link(Path blob, Path target) throws IOException {
+        try {
+            Files.createLink(target, blob);
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            // another file system, or hard links are not supported
+            copy(blob, target);
+            return false;
+        }
+    }
+
+    /**
+     * Copy the cached file to the target, which the task is free to modify.
+     */
+    private static void copy(Path blob, Path target) throws IOException {
+        Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+        target.toFile().setWritable(true);
+    }
+
+    /**
+     * Load the files cached by a previous worker process, the least recently modified first.
+     */
+    private synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        PluginServerPool.privateDirectory(directory);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Map.Entry<Path, FileTime>> existing = new ArrayList<>();
+            for (Path path : files.filter(Files::isRegularFile).toList()) {
+                // downloads in progress
+                if (!path.getFileName().toString().endsWith(".tmp")) {
+                    existing.add(Map.entry(path, Files.getLastModifiedTime(path)));
+                }
+            }
+
+            existing.sort(Map.Entry.comparingByValue());
+            for (Map.Entry<Path, FileTime> entry : existing) {
+                long fileSize = Files.size(entry.getKey());
+                blobs.put(entry.getKey().getFileName().toString(), new Blob(entry.getKey(), fileSize, entry.getValue(), false));
+                size += fileSize;
+            }
+        }
+        evict(null);
+        loaded = true;
+    }
+
+    /**
+     * @param verified whether the content of the file was checked against its hash by this worker process
+     */
+    private record Blob(Path path, long size, FileTime modified, boolean verified) {
+    }
+}
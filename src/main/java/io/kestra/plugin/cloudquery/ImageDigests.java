@@ -0,0 +1,218 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kestra.core.serializers.JacksonMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Worker-local cache of the digests of the Docker image tags, resolved anonymously through the registry HTTP API
+ * ({@code HEAD /v2/<repository>/manifests/<tag>}), so that the tag is looked up at most once per period on each worker
+ * instead of being pulled again by every execution.
+ */
+@Slf4j
+final class ImageDigests {
+    static final ImageDigests INSTANCE = new ImageDigests();
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final ObjectMapper MAPPER = JacksonMapper.ofJson();
+    private static final Pattern CHALLENGE_PARAMETER = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+    private static final String MANIFEST_TYPES = String.join(", ",
+        "application/vnd.oci.image.index.v1+json",
+        "application/vnd.docker.distribution.manifest.list.v2+json",
+        "application/vnd.oci.image.manifest.v1+json",
+        "application/vnd.docker.distribution.manifest.v2+json"
+    );
+
+    private final Map<String, Resolved> digests = new ConcurrentHashMap<>();
+    private HttpClient client;
+
+    /**
+     * The image pinned to the digest of its tag, resolved again when the cached digest is older than {@code ttl}. A
+     * failed lookup is cached for {@code ttl} too, keeping the last known digest if any, so that an unreachable registry
+     * doesn't delay every run.
+     *
+     * @return the pinned image, or empty if the image is already pinned or its digest can't be resolved
+     */
+    Optional<String> pin(String image, Duration ttl) {
+        Optional<Reference> reference = Reference.parse(image);
+        if (reference.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Resolved current = digests.get(image);
+        if (current != null && current.resolvedAt().plus(ttl).isAfter(Instant.now())) {
+            return current.pin(reference.get());
+        }
+
+        // resolved outside of the map, so that a slow registry never blocks the lookups of the other images
+        Resolved resolved;
+        try {
+            String digest = resolve(reference.get());
+            if (current == null || !digest.equals(current.digest())) {
+                log.info("Image '{}' resolved to '{}'", image, digest);
+            }
+            resolved = new Resolved(digest, Instant.now());
+        } catch (IOException e) {
+            log.warn("Unable to resolve the digest of the image '{}': {}", image, e.getMessage());
+            // keep the last known digest rather than pulling the tag
+            resolved = new Resolved(current == null ? null : current.digest(), Instant.now());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return current == null ? Optional.empty() : current.pin(reference.get());
+        }
+
+        // a concurrent lookup of the same image may have finished first, a known digest wins over a failure
+        Resolved latest = digests.merge(image, resolved, (previous, next) -> next.digest() != null || previous.digest() == null ? next : previous);
+        return latest.pin(reference.get());
+    }
+
+    private String resolve(Reference reference) throws IOException, InterruptedException {
+        URI manifest = URI.create("https://" + reference.registry() + "/v2/" + reference.repository() + "/manifests/" + reference.tag());
+
+        HttpResponse<Void> response = head(manifest, null);
+        if (response.statusCode() == 401) {
+            String token = token(response.headers().firstValue("WWW-Authenticate").orElse(null), reference);
+            response = head(manifest, token);
+        }
+
+        if (response.statusCode() != 200) {
+            throw new IOException("Registry responded with status " + response.statusCode() + " for " + manifest);
+        }
+
+        return response.headers().firstValue("Docker-Content-Digest")
+            .orElseThrow(() -> new IOException("No digest returned by the registry for " + manifest));
+    }
+
+    private HttpResponse<Void> head(URI uri, String token) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+            .method("HEAD", HttpRequest.BodyPublishers.noBody())
+            .header("Accept", MANIFEST_TYPES)
+            .timeout(TIMEOUT);
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+
+        return client().send(request.build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private String token(String challenge, Reference reference) throws IOException, InterruptedException {
+        Map<String, String> parameters = challenge(challenge);
+        if (!parameters.containsKey("realm")) {
+            throw new IOException("Unsupported registry authentication challenge: " + challenge);
+        }
+
+        StringBuilder uri = new StringBuilder(parameters.get("realm"))
+            .append("?scope=")
+            .append(URLEncoder.encode(parameters.getOrDefault("scope", "repository:" + reference.repository() + ":pull"), StandardCharsets.UTF_8));
+        if (parameters.containsKey("service")) {
+            uri.append("&service=").append(URLEncoder.encode(parameters.get("service"), StandardCharsets.UTF_8));
+        }
+
+        HttpResponse<String> response = client().send(
+            HttpRequest.newBuilder(URI.create(uri.toString())).timeout(TIMEOUT).GET().build(),
+            HttpResponse.BodyHandlers.ofString()
+        );
+        if (response.statusCode() != 200) {
+            throw new IOException("Token endpoint responded with status " + response.statusCode() + " for " + uri);
+        }
+
+        JsonNode body = MAPPER.readTree(response.body());
+        JsonNode token = body.hasNonNull("token") ? body.get("token") : body.get("access_token");
+        if (token == null) {
+            throw new IOException("No token returned by " + uri);
+        }
+        return token.asText();
+    }
+
+    /**
+     * The parameters of a {@code WWW-Authenticate: Bearer realm="...",service="...",scope="..."} challenge.
+     */
+    static Map<String, String> challenge(String header) {
+        if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return Map.of();
+        }
+
+        Map<String, String> parameters = new HashMap<>();
+        Matcher matcher = CHALLENGE_PARAMETER.matcher(header.substring(7));
+        while (matcher.find()) {
+            parameters.put(matcher.group(1), matcher.group(2));
+        }
+        return parameters;
+    }
+
+    private synchronized HttpClient client() {
+        if (client == null) {
+            client = HttpClient.newBuilder()
+                .connectTimeout(TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        }
+        return client;
+    }
+
+    /**
+     * @param digest the digest of the tag, or null if it was never resolved
+     */
+    private record Resolved(String digest, Instant resolvedAt) {
+        Optional<String> pin(Reference reference) {
+            return Optional.ofNullable(digest).map(digest -> reference.name() + "@" + digest);
+        }
+    }
+
+    /**
+     * A Docker image reference, {@code [registry/]repository[:tag]}, with the Docker Hub defaults.
+     *
+     * @param name the registry and repository as written in the image, to pin the digest on
+     */
+    record Reference(String name, String registry, String repository, String tag) {
+        private static final String DOCKER_HUB = "registry-1.docker.io";
+
+        /**
+         * @return the reference, or empty if the image is already pinned to a digest
+         */
+        static Optional<Reference> parse(String image) {
+            if (image.contains("@")) {
+                return Optional.empty();
+            }
+
+            String name = image;
+            String tag = "latest";
+            int colon = image.lastIndexOf(':');
+            if (colon > image.lastIndexOf('/')) {
+                name = image.substring(0, colon);
+                tag = image.substring(colon + 1);
+            }
+
+            String registry = DOCKER_HUB;
+            String repository = name;
+            int slash = name.indexOf('/');
+            if (slash > 0) {
+                String first = name.substring(0, slash);
+                if (first.contains(".") || first.contains(":") || first.equals("localhost")) {
+                    registry = first.equals("docker.io") ? DOCKER_HUB : first;
+                    repository = name.substring(slash + 1);
+                }
+            }
+            if (registry.equals(DOCKER_HUB) && !repository.contains("/")) {
+                repository = "library/" + repository;
+            }
+
+            return Optional.of(new Reference(name, registry, repository, tag));
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+
+public enum IncrementalBackend {
+    /**
+     * The whole database file, compressed.
+     */
+    FILE,
+    /**
+     * A snapshot of the cursors and the cursors changed since, so that only the changed cursors are uploaded.
+     */
+    KEY_VALUE;
+
+    IncrementalStore open(RunContext runContext, String name) {
+        return switch (this) {
+            case FILE -> new IncrementalState(runContext, name);
+            case KEY_VALUE -> new KeyValueState(runContext, name);
+        };
+    }
+}
@@ -0,0 +1,104 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically upload a consistent snapshot of the incremental backend while CloudQuery is still writing to it, so
+ * that a failed or killed sync restarts from the last checkpoint instead of the state of the previous run.
+ */
+class IncrementalCheckpoint implements AutoCloseable {
+    private final RunContext runContext;
+    private final IncrementalStore state;
+    private final Path database;
+    private final ScheduledExecutorService scheduler;
+
+    private IncrementalCheckpoint(RunContext runContext, IncrementalStore state, Path database) {
+        this.runContext = runContext;
+        this.state = state;
+        this.database = database;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cloudquery-checkpoint-" + database.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static IncrementalCheckpoint start(RunContext runContext, IncrementalStore state, Path database, Duration interval) {
+        IncrementalCheckpoint checkpoint = new IncrementalCheckpoint(runContext, state, database);
+        checkpoint.scheduler.scheduleWithFixedDelay(checkpoint::tick, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        return checkpoint;
+    }
+
+    /**
+     * Stop the periodic checkpoints and upload a last one, used when the sync failed.
+     */
+    void checkpoint() throws IOException {
+        close();
+        snapshotAndPersist();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void tick() {
+        try {
+            snapshotAndPersist();
+        } catch (Exception e) {
+            runContext.logger().warn("Unable to checkpoint the incremental state", e);
+        }
+    }
+
+    private void snapshotAndPersist() throws IOException {
+        if (!Files.exists(database) || Files.size(database) == 0) {
+            return;
+        }
+
+        Path snapshot = Files.createTempFile(database.getFileName().toString(), ".snapshot");
+        try {
+            snapshot(database, snapshot);
+            if (state.persist(snapshot)) {
+                runContext.logger().info("Checkpointed the incremental state");
+            }
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    /**
+     * Copy a SQLite database with the online backup API, which takes a consistent copy even while another process writes to it.
+     */
+    static void snapshot(Path database, Path target) throws IOException {
+        try (Connection connection = connect(database);
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("backup to \"" + target.toAbsolutePath() + "\"");
+        } catch (SQLException e) {
+            throw new IOException("Unable to snapshot the incremental state", e);
+        }
+    }
+
+    static Connection connect(Path database) throws SQLException {
+        // not through the DriverManager, which doesn't see the drivers of the plugin class loader
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + database.toAbsolutePath());
+        return dataSource.getConnection();
+    }
+}
@@ -0,0 +1,328 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.sql.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Compaction of the incremental backend database before it is persisted: the cursors that don't belong to any table
+ * of the current sources are deleted, optionally once they were stale for longer than a retention period, and the
+ * free pages are reclaimed with {@code VACUUM}.
+ * <p>
+ * Cursor keys are written by each plugin in its own format, usually the table name followed by the account, region or
+ * other ids of the client, joined by any separator including {@code _}. A cursor is considered current when a prefix
+ * of its key ending at a separator matches a table pattern of a current source, and no skip pattern. Unless a source
+ * skips its dependent tables, the tables named after the singular of a selected table, like {@code aws_s3_bucket_*}
+ * for {@code aws_s3_buckets}, are current too. Sources without a list of tables keep every cursor.
+ * <p>
+ * Only the tables are compared: the cursors of the accounts, regions or sources removed from the configurations are
+ * kept.
+ */
+class IncrementalCompaction {
+    private static final ObjectMapper MAPPER = JacksonMapper.ofJson();
+    private static final String STALE_FILE = "stale.json";
+    private static final String KEY_COLUMN = "key";
+
+    private final RunContext runContext;
+    private final String name;
+    private final String table;
+    private final Duration retention;
+
+    IncrementalCompaction(RunContext runContext, String name, Duration retention) {
+        this(runContext, name, (String) SyncConfigs.backendOptions().get("table_name"), retention);
+    }
+
+    IncrementalCompaction(RunContext runContext, String name, String table, Duration retention) {
+        this.runContext = runContext;
+        this.name = name;
+        this.table = table;
+        this.retention = retention;
+    }
+
+    /**
+     * Compact the database, emitting the size of the database before and after and the number of pruned cursors as metrics.
+     *
+     * @param prune whether to delete the stale cursors, or only reclaim the free pages
+     * @return the number of pruned cursors
+     */
+    int compact(Path database, List<Map<String, Object>> configs, boolean prune, String... tags) throws IOException {
+        if (!Files.exists(database) || Files.size(database) == 0) {
+            return 0;
+        }
+
+        long before = Files.size(database);
+        int pruned = 0;
+        try (Connection connection = IncrementalCheckpoint.connect(database)) {
+            if (prune && hasTable(connection)) {
+                Optional<Matcher> matcher = Matcher.of(configs);
+                if (matcher.isPresent()) {
+                    pruned = prune(connection, matcher.get());
+                }
+            }
+
+            // only vacuum when there is something to reclaim, so that an unchanged database keeps the same content
+            if (pruned > 0 || freePages(connection) > 0) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("VACUUM");
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Unable to compact the incremental state", e);
+        }
+        long after = Files.size(database);
+
+        if (pruned > 0) {
+            runContext.logger().info("Pruned {} stale cursors from the incremental state '{}'", pruned, name);
+        }
+        runContext.logger().debug("Compacted the incremental state '{}' from {} to {} bytes", name, before, after);
+        runContext.metric(Counter.of("state.size.before", before, tags));
+        runContext.metric(Counter.of("state.size.after", after, tags));
+        runContext.metric(Counter.of("state.pruned", pruned, tags));
+        return pruned;
+    }
+
+    /**
+     * Copy into the database the cursors of another database that it doesn't have yet, keeping only the cursors of the
+     * tables of the given sources. Used to carry the cursors over when the tables of a sync are split differently.
+     *
+     * @return the number of copied cursors
+     */
+    int merge(Path database, Path previous, List<Map<String, Object>> configs) throws IOException {
+        if (!Files.exists(previous) || Files.size(previous) == 0) {
+            return 0;
+        }
+
+        Optional<Matcher> matcher = Matcher.of(configs);
+        try (Connection connection = IncrementalCheckpoint.connect(database)) {
+            try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS previous")) {
+                attach.setString(1, previous.toAbsolutePath().toString());
+                attach.executeUpdate();
+            }
+
+            String schema;
+            try (PreparedStatement statement = connection.prepareStatement("SELECT sql FROM previous.sqlite_master WHERE type = 'table' AND name = ?")) {
+                statement.setString(1, table);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    schema = resultSet.next() ? resultSet.getString(1) : null;
+                }
+            }
+            if (schema == null) {
+                return 0;
+            }
+
+            connection.setAutoCommit(false);
+            if (!hasTable(connection)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate(schema);
+                }
+            }
+
+            List<String> keys = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT " + identifier(KEY_COLUMN) + " FROM previous." + identifier(table) +
+                     " WHERE " + identifier(KEY_COLUMN) + " NOT IN (SELECT " + identifier(KEY_COLUMN) + " FROM main." + identifier(table) + ")")) {
+                while (resultSet.next()) {
+                    String key = resultSet.getString(1);
+                    if (key != null && matcher.map(m -> m.matches(key)).orElse(true)) {
+                        keys.add(key);
+                    }
+                }
+            }
+
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO main." + identifier(table) +
+                " SELECT * FROM previous." + identifier(table) + " WHERE " + identifier(KEY_COLUMN) + " = ?")) {
+                for (String key : keys) {
+                    insert.setString(1, key);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DETACH DATABASE previous");
+            }
+            return keys.size();
+        } catch (SQLException e) {
+            throw new IOException("Unable to merge the incremental state", e);
+        }
+    }
+
+    private int prune(Connection connection, Matcher matcher) throws SQLException, IOException {
+        List<String> stale = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT " + identifier(KEY_COLUMN) + " FROM " + identifier(table))) {
+            while (resultSet.next()) {
+                String key = resultSet.getString(1);
+                if (key != null && !matcher.matches(key)) {
+                    stale.add(key);
+                }
+            }
+        }
+
+        List<String> expired = retention == null ? stale : expired(stale);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + identifier(table) + " WHERE " + identifier(KEY_COLUMN) + " = ?")) {
+            for (String key : expired) {
+                delete.setString(1, key);
+                delete.addBatch();
+            }
+            delete.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        return expired.size();
+    }
+
+    /**
+     * The stale cursors that were stale for longer than the retention, keeping track of when each cursor became stale.
+     */
+    private List<String> expired(List<String> stale) throws IOException {
+        Map<String, Instant> previous = readStale();
+        Map<String, Instant> since = new TreeMap<>();
+        Instant now = Instant.now();
+        List<String> expired = new ArrayList<>();
+        for (String key : stale) {
+            Instant staleSince = previous.getOrDefault(key, now);
+            if (staleSince.plus(retention).isBefore(now)) {
+                expired.add(key);
+            } else {
+                since.put(key, staleSince);
+            }
+        }
+
+        if (!since.equals(previous)) {
+            runContext.putTaskStateFile(MAPPER.writeValueAsBytes(since), IncrementalState.STATE_NAME, name + "-" + STALE_FILE);
+        }
+        return expired;
+    }
+
+    /**
+     * Delete the staleness of the cursors recorded for this state.
+     */
+    void delete() throws IOException {
+        runContext.deleteTaskStateFile(IncrementalState.STATE_NAME, name + "-" + STALE_FILE);
+    }
+
+    private Map<String, Instant> readStale() throws IOException {
+        try (InputStream input = runContext.getTaskStateFile(IncrementalState.STATE_NAME, name + "-" + STALE_FILE)) {
+            return MAPPER.readValue(input, new TypeReference<TreeMap<String, Instant>>() {
+            });
+        } catch (FileNotFoundException e) {
+            return new TreeMap<>();
+        }
+    }
+
+    private boolean hasTable(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private static long freePages(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA freelist_count")) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    private static String identifier(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Matches the cursor keys against the table patterns of the current sources.
+     */
+    record Matcher(List<PathMatcher> tables, List<PathMatcher> skipTables) {
+        /**
+         * @return the matcher, or empty if a source syncs all its tables, in which case no cursor is stale
+         */
+        @SuppressWarnings("unchecked")
+        static Optional<Matcher> of(List<Map<String, Object>> configs) {
+            List<PathMatcher> tables = new ArrayList<>();
+            List<PathMatcher> skipTables = new ArrayList<>();
+            for (Map<String, Object> config : configs) {
+                if (!Objects.equals(config.get("kind"), "source") || !(config.get("spec") instanceof Map<?, ?> rawSpec)) {
+                    continue;
+                }
+
+                Map<String, Object> spec = (Map<String, Object>) rawSpec;
+                if (!(spec.get("tables") instanceof List<?> patterns) || patterns.contains("*")) {
+                    return Optional.empty();
+                }
+                patterns.forEach(pattern -> tables.add(glob(pattern)));
+                if (!Objects.equals(spec.get("skip_dependent_tables"), true)) {
+                    patterns.forEach(pattern -> dependents(String.valueOf(pattern)).ifPresent(dependents -> tables.add(glob(dependents))));
+                }
+                if (spec.get("skip_tables") instanceof List<?> skips) {
+                    skips.forEach(pattern -> skipTables.add(glob(pattern)));
+                }
+            }
+
+            return Optional.of(new Matcher(tables, skipTables));
+        }
+
+        boolean matches(String key) {
+            int start = 0;
+            for (int i = 0; i <= key.length(); i++) {
+                char c = i < key.length() ? key.charAt(i) : '|';
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                    continue;
+                }
+
+                // every prefix of the token ending at a separator, as the ids can be joined to the table with '_'
+                if (i > start && matches(Path.of(key.substring(start, i)))) {
+                    return true;
+                }
+                if (c != '_') {
+                    start = i + 1;
+                }
+            }
+            return false;
+        }
+
+        private boolean matches(Path table) {
+            return tables.stream().anyMatch(m -> m.matches(table)) && skipTables.stream().noneMatch(m -> m.matches(table));
+        }
+
+        /**
+         * The pattern of the dependent tables of a table pattern, named after its singular by the CloudQuery plugins.
+         */
+        static Optional<String> dependents(String pattern) {
+            if (pattern.endsWith("ies")) {
+                return Optional.of(pattern.substring(0, pattern.length() - 3) + "y_*");
+            }
+            if (pattern.endsWith("s")) {
+                return Optional.of(pattern.substring(0, pattern.length() - 1) + "_*");
+            }
+            return Optional.empty();
+        }
+
+        private static PathMatcher glob(Object pattern) {
+            return FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        }
+    }
+}
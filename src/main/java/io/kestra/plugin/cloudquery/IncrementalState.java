@@ -0,0 +1,131 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists the incremental backend file in the task state as a gzip snapshot along with the SHA-256 of its content,
+ * so that an unchanged backend is never uploaded again.
+ */
+class IncrementalState implements IncrementalStore {
+    static final String STATE_NAME = "CloudQueryState";
+
+    private static final String COMPRESSED_SUFFIX = ".gz";
+    private static final String HASH_SUFFIX = ".sha256";
+
+    private final RunContext runContext;
+    private final String name;
+
+    private String restoredHash;
+
+    IncrementalState(RunContext runContext, String name) {
+        this.runContext = runContext;
+        this.name = name;
+    }
+
+    /**
+     * Restore the last snapshot into the given file, or create an empty file if there is none yet.
+     */
+    @Override
+    public void restore(Path target) throws IOException {
+        try (InputStream compressed = runContext.getTaskStateFile(STATE_NAME, name + COMPRESSED_SUFFIX)) {
+            decompress(compressed, target);
+            this.restoredHash = readHash();
+        } catch (FileNotFoundException notCompressed) {
+            // state written by previous versions of the plugin are stored uncompressed
+            try (InputStream legacy = runContext.getTaskStateFile(STATE_NAME, name)) {
+                Files.copy(legacy, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (FileNotFoundException exception) {
+                Files.deleteIfExists(target);
+                Files.createFile(target);
+            }
+        }
+    }
+
+    /**
+     * Upload the given file as the new snapshot, unless its content didn't change since {@link #restore(Path)}.
+     *
+     * @return whether a new snapshot was uploaded
+     */
+    @Override
+    public synchronized boolean persist(Path source) throws IOException {
+        String hash = sha256(source);
+        if (hash.equals(restoredHash)) {
+            runContext.logger().debug("Incremental state '{}' is unchanged, skipping upload", name);
+            return false;
+        }
+
+        Path compressed = Files.createTempFile(name, COMPRESSED_SUFFIX);
+        Path hashFile = Files.createTempFile(name, HASH_SUFFIX);
+        try {
+            try (OutputStream output = Files.newOutputStream(compressed)) {
+                compress(source, output);
+            }
+            Files.writeString(hashFile, hash);
+
+            runContext.putTaskStateFile(compressed.toFile(), STATE_NAME, name + COMPRESSED_SUFFIX);
+            runContext.putTaskStateFile(hashFile.toFile(), STATE_NAME, name + HASH_SUFFIX);
+        } finally {
+            Files.deleteIfExists(compressed);
+            Files.deleteIfExists(hashFile);
+        }
+
+        this.restoredHash = hash;
+        return true;
+    }
+
+    @Override
+    public void delete() throws IOException {
+        runContext.deleteTaskStateFile(STATE_NAME, name + COMPRESSED_SUFFIX);
+        runContext.deleteTaskStateFile(STATE_NAME, name + HASH_SUFFIX);
+        runContext.deleteTaskStateFile(STATE_NAME, name);
+        this.restoredHash = null;
+    }
+
+    private String readHash() throws IOException {
+        try (InputStream hash = runContext.getTaskStateFile(STATE_NAME, name + HASH_SUFFIX)) {
+            return new String(hash.readAllBytes(), StandardCharsets.UTF_8).trim();
+        } catch (FileNotFoundException exception) {
+            return null;
+        }
+    }
+
+    static void compress(Path source, OutputStream output) throws IOException {
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output, 64 * 1024)) {
+            Files.copy(source, gzip);
+        }
+    }
+
+    static void decompress(InputStream compressed, Path target) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(compressed, 64 * 1024)) {
+            Files.copy(gzip, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream input = new DigestInputStream(new BufferedInputStream(Files.newInputStream(file)), digest)) {
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
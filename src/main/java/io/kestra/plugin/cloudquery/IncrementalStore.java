@@ -0,0 +1,26 @@
+package io.kestra.plugin.cloudquery;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where the incremental backend database of a sync is kept between executions.
+ */
+interface IncrementalStore {
+    /**
+     * Restore the database into the given file, or create an empty file if there is nothing stored yet.
+     */
+    void restore(Path target) throws IOException;
+
+    /**
+     * Store the given database, unless its content didn't change since {@link #restore(Path)}.
+     *
+     * @return whether anything was uploaded
+     */
+    boolean persist(Path source) throws IOException;
+
+    /**
+     * Delete everything stored under this name.
+     */
+    void delete() throws IOException;
+}
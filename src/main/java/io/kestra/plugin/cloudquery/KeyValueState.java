@@ -0,0 +1,265 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists the cursors of the incremental backend table in the task state as a compressed snapshot of all the cursors
+ * and one file for each cursor that changed since the snapshot, along with an index of the hash of each cursor, so that
+ * an incremental sync only uploads the cursors that changed and a restore only downloads the snapshot and these cursors.
+ * A new snapshot replaces the changed cursors once they outnumber a quarter of the cursors.
+ * <p>
+ * The database is rebuilt from the table schema and the cursors before each sync. When nothing was stored this way yet,
+ * the snapshot of the whole file is restored instead, so switching from the {@code FILE} backend keeps the cursors.
+ */
+class KeyValueState implements IncrementalStore {
+    private static final String INDEX_FILE = "index.json";
+    private static final String SNAPSHOT_SUFFIX = ".json.gz";
+    private static final String KEY_COLUMN = "key";
+    private static final ObjectMapper MAPPER = JacksonMapper.ofJson();
+    private static final TypeReference<LinkedHashMap<String, Object>> ROW_TYPE = new TypeReference<>() {
+    };
+    private static final TypeReference<LinkedHashMap<String, LinkedHashMap<String, Object>>> SNAPSHOT_TYPE = new TypeReference<>() {
+    };
+
+    private final RunContext runContext;
+    private final String name;
+    private final String table;
+
+    private Index restored;
+
+    KeyValueState(RunContext runContext, String name) {
+        this(runContext, name, (String) SyncConfigs.backendOptions().get("table_name"));
+    }
+
+    KeyValueState(RunContext runContext, String name, String table) {
+        this.runContext = runContext;
+        this.name = name;
+        this.table = table;
+    }
+
+    @Override
+    public void restore(Path target) throws IOException {
+        Index index = readIndex();
+        if (index == null) {
+            new IncrementalState(runContext, name).restore(target);
+            return;
+        }
+
+        Files.deleteIfExists(target);
+        try (Connection connection = IncrementalCheckpoint.connect(target)) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(index.schema());
+            }
+
+            Map<String, LinkedHashMap<String, Object>> snapshot = index.snapshot() == null ? Map.of() : readSnapshot(index.snapshot());
+            for (Map.Entry<String, Index.Entry> entry : index.keys().entrySet()) {
+                Map<String, Object> row;
+                if (entry.getValue().file().equals(index.snapshot())) {
+                    row = snapshot.get(entry.getKey());
+                } else {
+                    try (InputStream input = runContext.getTaskStateFile(IncrementalState.STATE_NAME, entry.getValue().file())) {
+                        row = MAPPER.readValue(input, ROW_TYPE);
+                    }
+                }
+
+                List<String> columns = new ArrayList<>(row.keySet());
+                String sql = "INSERT INTO " + identifier(table) + " (" +
+                    String.join(", ", columns.stream().map(KeyValueState::identifier).toList()) + ") VALUES (" +
+                    String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+                try (PreparedStatement insert = connection.prepareStatement(sql)) {
+                    for (int i = 0; i < columns.size(); i++) {
+                        insert.setObject(i + 1, row.get(columns.get(i)));
+                    }
+                    insert.executeUpdate();
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IOException("Unable to restore the incremental state", e);
+        }
+
+        this.restored = index;
+    }
+
+    @Override
+    public synchronized boolean persist(Path source) throws IOException {
+        Map<String, byte[]> rows = new LinkedHashMap<>();
+        String schema;
+        try (Connection connection = IncrementalCheckpoint.connect(source)) {
+            schema = schema(connection);
+            if (schema == null) {
+                runContext.logger().debug("No incremental table '{}' in the state '{}', skipping upload", table, name);
+                return false;
+            }
+
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT * FROM " + identifier(table))) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                while (resultSet.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        row.put(metaData.getColumnName(i), resultSet.getObject(i));
+                    }
+                    rows.put(String.valueOf(row.get(KEY_COLUMN)), MAPPER.writeValueAsBytes(row));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Unable to read the incremental state", e);
+        }
+
+        Map<String, String> hashes = new LinkedHashMap<>();
+        int deltas = 0;
+        for (Map.Entry<String, byte[]> row : rows.entrySet()) {
+            String hash = HexFormat.of().formatHex(IncrementalState.newDigest().digest(row.getValue()));
+            hashes.put(row.getKey(), hash);
+            Index.Entry previous = restored == null ? null : restored.keys().get(row.getKey());
+            if (previous == null || !previous.hash().equals(hash) || !previous.file().equals(restored.snapshot())) {
+                deltas++;
+            }
+        }
+
+        Map<String, Index.Entry> keys = new TreeMap<>();
+        String snapshot = restored == null ? null : restored.snapshot();
+        int uploaded = 0;
+        if (deltas > rows.size() / 4) {
+            // a single file replaces the changed cursors, so that a restore doesn't download them one by one
+            Map<String, Object> content = new TreeMap<>();
+            for (Map.Entry<String, byte[]> row : rows.entrySet()) {
+                content.put(row.getKey(), MAPPER.readValue(row.getValue(), ROW_TYPE));
+            }
+            byte[] compressed = compress(MAPPER.writeValueAsBytes(content));
+            snapshot = name + "-snapshot-" + HexFormat.of().formatHex(IncrementalState.newDigest().digest(compressed)) + SNAPSHOT_SUFFIX;
+            for (Map.Entry<String, String> hash : hashes.entrySet()) {
+                keys.put(hash.getKey(), new Index.Entry(snapshot, hash.getValue()));
+            }
+            if (restored == null || !snapshot.equals(restored.snapshot())) {
+                runContext.putTaskStateFile(compressed, IncrementalState.STATE_NAME, snapshot);
+                uploaded = rows.size();
+            }
+        } else {
+            for (Map.Entry<String, byte[]> row : rows.entrySet()) {
+                String hash = hashes.get(row.getKey());
+                Index.Entry previous = restored == null ? null : restored.keys().get(row.getKey());
+                if (previous != null && previous.hash().equals(hash)) {
+                    keys.put(row.getKey(), previous);
+                    continue;
+                }
+
+                String file = filename(name, row.getKey());
+                runContext.putTaskStateFile(row.getValue(), IncrementalState.STATE_NAME, file);
+                keys.put(row.getKey(), new Index.Entry(file, hash));
+                uploaded++;
+            }
+        }
+
+        Index index = new Index(schema, keys.isEmpty() ? null : snapshot, keys);
+        if (index.equals(restored)) {
+            runContext.logger().debug("Incremental state '{}' is unchanged, skipping upload", name);
+            return false;
+        }
+
+        runContext.putTaskStateFile(MAPPER.writeValueAsBytes(index), IncrementalState.STATE_NAME, name + "-" + INDEX_FILE);
+        runContext.logger().debug("Uploaded {} changed cursors out of {} for the incremental state '{}'", uploaded, keys.size(), name);
+
+        // only once the new index is stored, so that the stored index never points to a deleted file
+        if (restored != null) {
+            Set<String> files = files(index);
+            for (String file : files(restored)) {
+                if (!files.contains(file)) {
+                    runContext.deleteTaskStateFile(IncrementalState.STATE_NAME, file);
+                }
+            }
+        }
+
+        this.restored = index;
+        return true;
+    }
+
+    /**
+     * Delete the snapshot and the cursors, then the index, then the snapshot of the {@code FILE} backend this state may have started from.
+     */
+    @Override
+    public void delete() throws IOException {
+        Index index = readIndex();
+        if (index != null) {
+            for (String file : files(index)) {
+                runContext.deleteTaskStateFile(IncrementalState.STATE_NAME, file);
+            }
+            runContext.deleteTaskStateFile(IncrementalState.STATE_NAME, name + "-" + INDEX_FILE);
+        }
+        new IncrementalState(runContext, name).delete();
+        this.restored = null;
+    }
+
+    static String filename(String name, String key) {
+        return name + "-" + HexFormat.of().formatHex(IncrementalState.newDigest().digest(key.getBytes(StandardCharsets.UTF_8))) + ".json";
+    }
+
+    private static Set<String> files(Index index) {
+        Set<String> files = new HashSet<>();
+        if (index.snapshot() != null) {
+            files.add(index.snapshot());
+        }
+        index.keys().values().forEach(entry -> files.add(entry.file()));
+        return files;
+    }
+
+    private Map<String, LinkedHashMap<String, Object>> readSnapshot(String file) throws IOException {
+        try (InputStream input = new GZIPInputStream(runContext.getTaskStateFile(IncrementalState.STATE_NAME, file), 64 * 1024)) {
+            return MAPPER.readValue(input, SNAPSHOT_TYPE);
+        }
+    }
+
+    private static byte[] compress(byte[] content) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(content);
+        }
+        return output.toByteArray();
+    }
+
+    private Index readIndex() throws IOException {
+        try (InputStream input = runContext.getTaskStateFile(IncrementalState.STATE_NAME, name + "-" + INDEX_FILE)) {
+            return MAPPER.readValue(input, Index.class);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private String schema(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private static String identifier(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * @param snapshot the file of the snapshot, the cursors stored in their own file having changed since
+     */
+    record Index(String schema, String snapshot, Map<String, Entry> keys) {
+        record Entry(String file, String hash) {
+        }
+    }
+}
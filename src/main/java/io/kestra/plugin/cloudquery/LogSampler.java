@@ -0,0 +1,223 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.runners.RunContext;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decides which log lines of CloudQuery are logged to Kestra: each level is limited to a number of lines per second,
+ * and the lines repeated within an interval are only counted once over the threshold. The dropped lines are summarized
+ * at the end of each interval, and the last ones are kept in a ring buffer to be logged before the next error.
+ * <p>
+ * Every line, logged or not, can be written to a gzip file uploaded to Kestra's internal storage when the run ends.
+ */
+class LogSampler {
+    private static final int MAX_KEYS = 10_000;
+    private static final int MAX_REPEATED_SUMMARIES = 20;
+
+    private final RunContext runContext;
+    private final Logger logger;
+    private final String[] tags;
+    private final Map<Level, Integer> rateLimits = new EnumMap<>(Level.class);
+    private final int repeatThreshold;
+    private final long intervalNanos;
+    private final int bufferSize;
+
+    private final Deque<Entry> buffer = new ArrayDeque<>();
+    private final Map<String, Integer> occurrences = new HashMap<>();
+    private final Map<String, Repeated> repeated = new LinkedHashMap<>();
+    private final Map<Level, Integer> secondCounts = new EnumMap<>(Level.class);
+    private final Map<Level, Long> dropped = new EnumMap<>(Level.class);
+    private long second;
+    private long intervalStart;
+    private long totalLines;
+    private long droppedLines;
+
+    private final Path fullLog;
+    private Writer writer;
+
+    LogSampler(RunContext runContext, LogSamplingOptions options, String... tags) throws IOException {
+        this.runContext = runContext;
+        this.logger = runContext.logger();
+        this.tags = tags;
+        options.getRateLimits().forEach((level, limit) -> this.rateLimits.put(Level.valueOf(level.toUpperCase(Locale.ROOT)), limit));
+        this.repeatThreshold = options.getRepeatThreshold();
+        this.intervalNanos = options.getInterval().toNanos();
+        this.bufferSize = options.getBufferSize();
+        this.intervalStart = System.nanoTime();
+
+        if (options.isStoreFullLog()) {
+            this.fullLog = Files.createTempFile("cloudquery", ".log.gz");
+            this.writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(fullLog), 64 * 1024), StandardCharsets.UTF_8));
+        } else {
+            this.fullLog = null;
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Write a raw line to the full log.
+     */
+    synchronized void record(String line) {
+        totalLines++;
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            logger.warn("Unable to write the full log, it won't be stored", e);
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Whether to log a line, counting it as dropped or repeated otherwise.
+     *
+     * @param key the line without its variable parts, to detect the repeated lines
+     */
+    synchronized boolean allow(Level level, String key, String message) {
+        long now = System.nanoTime();
+        if (now - intervalStart >= intervalNanos) {
+            summarize();
+            intervalStart = now;
+        }
+
+        if (occurrences.size() < MAX_KEYS || occurrences.containsKey(key)) {
+            int count = occurrences.merge(key, 1, Integer::sum);
+            if (count > repeatThreshold) {
+                repeated.computeIfAbsent(key, k -> new Repeated(message)).count++;
+                drop(level, message);
+                return false;
+            }
+        }
+
+        long currentSecond = now / 1_000_000_000L;
+        if (currentSecond != second) {
+            second = currentSecond;
+            secondCounts.clear();
+        }
+        Integer limit = rateLimits.get(level);
+        if (limit != null && secondCounts.merge(level, 1, Integer::sum) > limit) {
+            dropped.merge(level, 1L, Long::sum);
+            drop(level, message);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The last dropped lines, removed from the buffer.
+     */
+    synchronized List<Entry> drain() {
+        List<Entry> entries = new ArrayList<>(buffer);
+        buffer.clear();
+        return entries;
+    }
+
+    /**
+     * Summarize the last interval and upload the full log.
+     *
+     * @return the URI of the full log, or null if it is not stored
+     */
+    synchronized URI close() throws IOException {
+        summarize();
+        runContext.metric(Counter.of("log.lines", totalLines, tags));
+        runContext.metric(Counter.of("log.dropped", droppedLines, tags));
+        if (writer == null) {
+            if (fullLog != null) {
+                Files.deleteIfExists(fullLog);
+            }
+            return null;
+        }
+
+        try {
+            writer.close();
+            URI uri = runContext.storage().putFile(fullLog.toFile());
+            logger.info("The full log of {} lines, {} of them not logged, is stored in '{}'", totalLines, droppedLines, uri);
+            return uri;
+        } finally {
+            Files.deleteIfExists(fullLog);
+        }
+    }
+
+    /**
+     * The key of a line to detect repetitions, ignoring the numbers it contains.
+     */
+    static String key(Level level, String message) {
+        StringBuilder key = new StringBuilder(message.length() + 6).append(level.name()).append(' ');
+        boolean digits = false;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (Character.isDigit(c)) {
+                if (!digits) {
+                    key.append('#');
+                }
+                digits = true;
+            } else {
+                key.append(c);
+                digits = false;
+            }
+        }
+        return key.toString();
+    }
+
+    private void drop(Level level, String message) {
+        droppedLines++;
+        if (bufferSize == 0) {
+            return;
+        }
+        if (buffer.size() == bufferSize) {
+            buffer.removeFirst();
+        }
+        buffer.addLast(new Entry(level, message));
+    }
+
+    private void summarize() {
+        dropped.forEach((level, count) -> logger.info("Rate limit: {} {} lines were not logged", count, level));
+        dropped.clear();
+
+        repeated.values().stream()
+            .sorted(Comparator.comparingLong((Repeated r) -> r.count).reversed())
+            .limit(MAX_REPEATED_SUMMARIES)
+            .forEach(r -> logger.info("Repeated {} more times: {}", r.count, r.message));
+        if (repeated.size() > MAX_REPEATED_SUMMARIES) {
+            logger.info("{} other lines were repeated", repeated.size() - MAX_REPEATED_SUMMARIES);
+        }
+        repeated.clear();
+        occurrences.clear();
+    }
+
+    private void closeQuietly() {
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // the full log is already broken
+        }
+        writer = null;
+    }
+
+    record Entry(Level level, String message) {
+    }
+
+    private static class Repeated {
+        private final String message;
+        private long count;
+
+        Repeated(String message) {
+            this.message = message;
+        }
+    }
+}
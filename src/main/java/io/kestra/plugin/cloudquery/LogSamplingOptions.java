@@ -0,0 +1,59 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.models.annotations.PluginProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.Map;
+
+@Builder
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LogSamplingOptions {
+    @Schema(
+        title = "The maximum number of lines logged per second for each level.",
+        description = "Keys are `TRACE`, `DEBUG`, `INFO`, `WARN` or `ERROR`, levels without a limit are not rate limited."
+    )
+    @PluginProperty(additionalProperties = Integer.class)
+    @Builder.Default
+    private Map<String, Integer> rateLimits = Map.of("TRACE", 10, "DEBUG", 10, "INFO", 100, "WARN", 100);
+
+    @Schema(
+        title = "How many times the same line is logged per interval before its repetitions are only counted.",
+        description = "Lines are compared by their message, ignoring the numbers and, for the CloudQuery JSON logs, the fields."
+    )
+    @PluginProperty
+    @NotNull
+    @Min(1)
+    @Builder.Default
+    private Integer repeatThreshold = 5;
+
+    @Schema(
+        title = "The interval of the repetition counts, at the end of which the dropped and repeated lines are summarized."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    private Duration interval = Duration.ofSeconds(30);
+
+    @Schema(
+        title = "The number of dropped lines kept in memory, logged before the next error to give it some context."
+    )
+    @PluginProperty
+    @NotNull
+    @Min(0)
+    @Builder.Default
+    private Integer bufferSize = 100;
+
+    @Schema(
+        title = "Whether to store the full log, gzip compressed, in Kestra's internal storage.",
+        description = "The file is added to the `outputFiles` of the task, and its URI is logged when the task fails."
+    )
+    @PluginProperty
+    @Builder.Default
+    private boolean storeFullLog = true;
+}
@@ -0,0 +1,304 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Cache of the plugins downloaded by CloudQuery in its {@code .cq/plugins/<kind>/<team>/<name>/<version>} directories.
+ * A plugin is keyed by its kind, path and version, so it is only uploaded again when a new version is used.
+ * <p>
+ * Plugins are binaries, so the cache is split by the operating system and architecture they run on, and workers of
+ * different platforms sharing a cache never restore each other's plugins.
+ */
+class PluginCache {
+    static final String STATE_NAME = "CloudQueryPluginCache";
+
+    private static final ObjectMapper MAPPER = JacksonMapper.ofJson();
+    private static final String INDEX = "index.json";
+    private static final Path PLUGINS_DIRECTORY = Path.of(".cq", "plugins");
+
+    private final RunContext runContext;
+    private final Store store;
+    private Set<String> index;
+
+    private PluginCache(RunContext runContext, Store store) {
+        this.runContext = runContext;
+        this.store = store;
+    }
+
+    static PluginCache of(RunContext runContext, PluginCacheOptions options, RunnerType runner) throws IllegalVariableEvaluationException {
+        String platform = platform(runner);
+        return switch (options.getType()) {
+            case STORAGE -> new PluginCache(runContext, new StateStore(runContext, platform));
+            case LOCAL -> {
+                if (options.getDirectory() == null) {
+                    throw new IllegalArgumentException("A directory is required for the LOCAL plugin cache");
+                }
+                yield new PluginCache(runContext, new LocalStore(Path.of(runContext.render(options.getDirectory())).resolve(platform)));
+            }
+        };
+    }
+
+    /**
+     * The platform the plugins run on: the worker's for the {@code PROCESS} runner, Linux on the worker's architecture
+     * for the containers.
+     */
+    static String platform(RunnerType runner) {
+        String os = runner == RunnerType.PROCESS ? System.getProperty("os.name") : "linux";
+        return (os + "-" + System.getProperty("os.arch")).toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_.-]+", "_");
+    }
+
+    /**
+     * The key of the plugin of a CloudQuery configuration, or empty if the plugin is not downloaded from a registry.
+     */
+    @SuppressWarnings("unchecked")
+    static Optional<String> key(Map<String, Object> config) {
+        if (!(config.get("kind") instanceof String kind) || !(config.get("spec") instanceof Map<?, ?> rawSpec)) {
+            return Optional.empty();
+        }
+
+        Map<String, Object> spec = (Map<String, Object>) rawSpec;
+        Object registry = spec.getOrDefault("registry", "cloudquery");
+        if (!Objects.equals(registry, "cloudquery") && !Objects.equals(registry, "github")) {
+            return Optional.empty();
+        }
+
+        if (!(spec.get("path") instanceof String path) || !(spec.get("version") instanceof String version) || path.split("/").length != 2) {
+            return Optional.empty();
+        }
+
+        return Optional.of(kind + "/" + path + "/" + version);
+    }
+
+    /**
+     * Restore the given plugins in the working directory, or all the cached plugins if {@code keys} is null.
+     */
+    synchronized void restore(Path workingDirectory, Collection<String> keys) throws IOException {
+        Set<String> cached = index();
+        Collection<String> toRestore = keys == null ? cached : keys.stream().filter(cached::contains).toList();
+
+        for (String key : toRestore) {
+            Path directory = workingDirectory.resolve(PLUGINS_DIRECTORY).resolve(key);
+            if (Files.exists(directory)) {
+                continue;
+            }
+
+            Files.createDirectories(directory);
+            if (store.get(key, directory)) {
+                runContext.logger().debug("Restored plugin '{}' from the cache", key);
+            } else {
+                deleteRecursively(directory);
+            }
+        }
+    }
+
+    /**
+     * Add the plugins downloaded during the run that are not cached yet.
+     */
+    synchronized void refresh(Path workingDirectory) throws IOException {
+        Path plugins = workingDirectory.resolve(PLUGINS_DIRECTORY);
+        if (!Files.isDirectory(plugins)) {
+            return;
+        }
+
+        Set<String> cached = index();
+        List<String> added = new ArrayList<>();
+        try (Stream<Path> versions = Files.find(plugins, 4, (path, attributes) -> attributes.isDirectory() && plugins.relativize(path).getNameCount() == 4)) {
+            for (Path directory : versions.toList()) {
+                String key = plugins.relativize(directory).toString().replace(File.separatorChar, '/');
+                if (!cached.contains(key) && !isEmpty(directory)) {
+                    store.put(key, directory);
+                    added.add(key);
+                }
+            }
+        }
+
+        if (!added.isEmpty()) {
+            cached.addAll(added);
+            store.putIndex(cached);
+            runContext.logger().info("Added plugins {} to the cache", added);
+        }
+    }
+
+    private Set<String> index() throws IOException {
+        if (this.index == null) {
+            this.index = new TreeSet<>(store.index());
+        }
+        return this.index;
+    }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.findAny().isEmpty();
+        }
+    }
+
+    static void zip(Path directory, OutputStream output) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(output)); Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                zip.putNextEntry(new ZipEntry(directory.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, zip);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    static void unzip(InputStream input, Path directory) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(input))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                Path file = directory.resolve(entry.getName()).normalize();
+                if (!file.startsWith(directory)) {
+                    throw new IOException("Invalid entry '" + entry.getName() + "' in the plugin cache");
+                }
+
+                Files.createDirectories(file.getParent());
+                Files.copy(zip, file, StandardCopyOption.REPLACE_EXISTING);
+                // zip entries don't keep the permissions and plugins are executables
+                file.toFile().setExecutable(true);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private interface Store {
+        Set<String> index() throws IOException;
+
+        void putIndex(Set<String> keys) throws IOException;
+
+        boolean get(String key, Path directory) throws IOException;
+
+        void put(String key, Path directory) throws IOException;
+    }
+
+    private record StateStore(RunContext runContext, String platform) implements Store {
+        @Override
+        public Set<String> index() throws IOException {
+            try (InputStream index = runContext.getTaskStateFile(STATE_NAME, platform + "-" + INDEX)) {
+                return MAPPER.readValue(index, new TypeReference<>() {
+                });
+            } catch (FileNotFoundException exception) {
+                return Set.of();
+            }
+        }
+
+        @Override
+        public void putIndex(Set<String> keys) throws IOException {
+            Path index = Files.createTempFile("cloudquery-plugins", ".json");
+            try {
+                MAPPER.writeValue(index.toFile(), keys);
+                runContext.putTaskStateFile(index.toFile(), STATE_NAME, platform + "-" + INDEX);
+            } finally {
+                Files.deleteIfExists(index);
+            }
+        }
+
+        @Override
+        public boolean get(String key, Path directory) throws IOException {
+            try (InputStream input = runContext.getTaskStateFile(STATE_NAME, filename(key))) {
+                unzip(input, directory);
+                return true;
+            } catch (FileNotFoundException exception) {
+                return false;
+            }
+        }
+
+        @Override
+        public void put(String key, Path directory) throws IOException {
+            Path archive = Files.createTempFile("cloudquery-plugin", ".zip");
+            try {
+                try (OutputStream output = Files.newOutputStream(archive)) {
+                    zip(directory, output);
+                }
+                runContext.putTaskStateFile(archive.toFile(), STATE_NAME, filename(key));
+            } finally {
+                Files.deleteIfExists(archive);
+            }
+        }
+
+        private String filename(String key) {
+            return platform + "_" + key.replace('/', '_') + ".zip";
+        }
+    }
+
+    private record LocalStore(Path root) implements Store {
+        @Override
+        public Set<String> index() throws IOException {
+            if (!Files.isDirectory(root)) {
+                return Set.of();
+            }
+
+            try (Stream<Path> versions = Files.find(root, 4, (path, attributes) -> attributes.isDirectory() && root.relativize(path).getNameCount() == 4)) {
+                Set<String> keys = new HashSet<>();
+                versions.forEach(path -> keys.add(root.relativize(path).toString().replace(File.separatorChar, '/')));
+                return keys;
+            }
+        }
+
+        @Override
+        public void putIndex(Set<String> keys) {
+            // the directories are the index
+        }
+
+        @Override
+        public boolean get(String key, Path directory) throws IOException {
+            Path cached = root.resolve(key);
+            if (!Files.isDirectory(cached)) {
+                return false;
+            }
+
+            copyRecursively(cached, directory);
+            return true;
+        }
+
+        @Override
+        public void put(String key, Path directory) throws IOException {
+            Path target = root.resolve(key);
+            if (Files.exists(target)) {
+                return;
+            }
+
+            // copy next to the target then move, so that concurrent workers never see a partial plugin
+            Files.createDirectories(target.getParent());
+            Path temporary = Files.createTempDirectory(target.getParent(), target.getFileName().toString());
+            try {
+                copyRecursively(directory, temporary);
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException exception) {
+                deleteRecursively(temporary);
+            }
+        }
+
+        private static void copyRecursively(Path source, Path target) throws IOException {
+            try (Stream<Path> files = Files.walk(source)) {
+                for (Path file : files.toList()) {
+                    Path destination = target.resolve(source.relativize(file).toString());
+                    if (Files.isDirectory(file)) {
+                        Files.createDirectories(destination);
+                    } else {
+                        Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+            }
+        }
+    }
+}
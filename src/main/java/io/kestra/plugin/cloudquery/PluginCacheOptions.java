@@ -0,0 +1,34 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.models.annotations.PluginProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import jakarta.validation.constraints.NotNull;
+
+@Builder
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PluginCacheOptions {
+    @Schema(
+        title = "Where to store the cached plugins.",
+        description = "`STORAGE` stores the plugins in Kestra's internal storage as part of the flow state, " +
+            "`LOCAL` stores them in a directory of the worker host."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    private Type type = Type.STORAGE;
+
+    @Schema(
+        title = "The directory of the worker host where to store the plugins, for the `LOCAL` type."
+    )
+    @PluginProperty(dynamic = true)
+    private String directory;
+
+    public enum Type {
+        STORAGE,
+        LOCAL
+    }
+}
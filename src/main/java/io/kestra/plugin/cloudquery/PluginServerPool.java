@@ -0,0 +1,315 @@
+package io.kestra.plugin.cloudquery;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Worker-local pool of long-lived CloudQuery plugin servers ({@code plugin serve --network unix --address <socket>}).
+ * <p>
+ * Servers are keyed by the plugin key (kind, path and version) and a hash of the spec and environment they were
+ * started with, so a server is never shared between syncs with different credentials. A server is leased to a single
+ * sync at a time, and stopped when idle for longer than the idle timeout of its last lease.
+ * <p>
+ * Servers hold the credentials of their environment, so they listen on a unix socket in a directory only readable by
+ * the worker user instead of a TCP port that any process of the host could connect to, and they are stopped with the
+ * worker.
+ * <p>
+ * The binaries are kept in a directory only accessible to the worker user, and a binary is only started when its
+ * checksum matches the one of the binary harvested by this worker, so that a binary planted by another user of the host
+ * is never executed.
+ */
+@Slf4j
+final class PluginServerPool {
+    static final PluginServerPool INSTANCE = new PluginServerPool(Path.of(System.getProperty("java.io.tmpdir"), "kestra-cloudquery-plugins"));
+
+    private static final Duration START_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration EVICTION_INTERVAL = Duration.ofSeconds(30);
+    private static final String BINARY = "plugin";
+    private static final Set<PosixFilePermission> PRIVATE = PosixFilePermissions.fromString("rwx------");
+
+    private final Path binaries;
+    private final Map<String, List<Server>> servers = new HashMap<>();
+    private final Map<String, String> checksums = new ConcurrentHashMap<>();
+    private ScheduledExecutorService evictor;
+    private boolean shutdownHook;
+
+    PluginServerPool(Path binaries) {
+        this.binaries = binaries;
+    }
+
+    /**
+     * Lease a healthy server for the given plugin, starting one if none is idle.
+     *
+     * @return the leased server, or empty if the plugin binary was never downloaded on this worker
+     */
+    Optional<Server> lease(String pluginKey, String specHash, Map<String, String> env, Duration idleTimeout) throws IOException {
+        Path binary = binaries().resolve(pluginKey).resolve(BINARY);
+        String checksum = checksums.get(pluginKey);
+        if (checksum == null || !Files.isExecutable(binary)) {
+            return Optional.empty();
+        }
+
+        String key = pluginKey + "@" + specHash;
+        List<Server> unhealthy = new ArrayList<>();
+        try {
+            synchronized (this) {
+                List<Server> candidates = servers.computeIfAbsent(key, k -> new ArrayList<>());
+                Iterator<Server> iterator = candidates.iterator();
+                while (iterator.hasNext()) {
+                    Server server = iterator.next();
+                    if (server.leased) {
+                        continue;
+                    }
+
+                    if (server.isHealthy()) {
+                        server.leased = true;
+                        server.idleTimeout = idleTimeout;
+                        return Optional.of(server);
+                    }
+
+                    log.info("Plugin server '{}' on {} is unhealthy, stopping it", key, server.socket);
+                    unhealthy.add(server);
+                    iterator.remove();
+                }
+            }
+        } finally {
+            unhealthy.forEach(Server::stop);
+        }
+
+        if (!checksum.equals(IncrementalState.sha256(binary))) {
+            log.warn("The binary of the plugin '{}' changed since it was harvested, starting the plugin as usual", pluginKey);
+            checksums.remove(pluginKey, checksum);
+            return Optional.empty();
+        }
+
+        Server server = start(key, binary, env, idleTimeout);
+        synchronized (this) {
+            servers.computeIfAbsent(key, k -> new ArrayList<>()).add(server);
+            scheduleEviction();
+        }
+        return Optional.of(server);
+    }
+
+    synchronized void release(Server server) {
+        server.leased = false;
+        server.lastUsed = Instant.now();
+    }
+
+    /**
+     * Keep the plugins downloaded in a working directory so that the next syncs can start them as servers.
+     */
+    void harvest(Path workingDirectory, Collection<String> pluginKeys) throws IOException {
+        for (String pluginKey : pluginKeys) {
+            Path source = workingDirectory.resolve(".cq").resolve("plugins").resolve(pluginKey).resolve(BINARY);
+            if (!Files.isRegularFile(source)) {
+                continue;
+            }
+
+            String checksum = IncrementalState.sha256(source);
+            if (checksum.equals(checksums.get(pluginKey))) {
+                continue;
+            }
+
+            Path target = binaries().resolve(pluginKey).resolve(BINARY);
+            Files.createDirectories(target.getParent());
+            Path temporary = Files.createTempFile(target.getParent(), BINARY, ".tmp");
+            Files.copy(source, temporary, StandardCopyOption.REPLACE_EXISTING);
+            temporary.toFile().setExecutable(true, true);
+            // a binary left by a previous worker is replaced, its content is unknown
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checksums.put(pluginKey, checksum);
+        }
+    }
+
+    private Path binaries() throws IOException {
+        return privateDirectory(binaries);
+    }
+
+    /**
+     * Create the directory only accessible to the worker user, as the files of the worker are kept in a directory
+     * shared by every user of the host by default.
+     *
+     * @throws IOException if the directory exists but is owned by another user or accessible to other users
+     */
+    static Path privateDirectory(Path directory) throws IOException {
+        try {
+            Files.createDirectories(directory.getParent());
+            Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(PRIVATE));
+            // the permissions of the attribute are restricted by the umask
+            Files.setPosixFilePermissions(directory, PRIVATE);
+        } catch (FileAlreadyExistsException e) {
+            // checked below
+        }
+
+        PosixFileAttributes attributes = Files.readAttributes(directory, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isDirectory() || !attributes.owner().getName().equals(System.getProperty("user.name")) || !attributes.permissions().equals(PRIVATE)) {
+            throw new IOException("The directory " + directory + " must be a directory owned by the worker user and only accessible to it");
+        }
+        return directory;
+    }
+
+    void evict() {
+        List<Server> idle = new ArrayList<>();
+        synchronized (this) {
+            Instant now = Instant.now();
+            servers.forEach((key, candidates) -> candidates.removeIf(server -> {
+                if (server.leased) {
+                    return false;
+                }
+
+                if (!server.process.isAlive() || server.lastUsed.plus(server.idleTimeout).isBefore(now)) {
+                    log.info("Stopping idle plugin server '{}' on {}", key, server.socket);
+                    idle.add(server);
+                    return true;
+                }
+                return false;
+            }));
+            servers.values().removeIf(List::isEmpty);
+
+            if (servers.isEmpty() && evictor != null) {
+                evictor.shutdown();
+                evictor = null;
+            }
+        }
+
+        // stopping a server can take a while, the pool must not be locked meanwhile
+        idle.forEach(Server::stop);
+    }
+
+    /**
+     * Stop every server, leased or not, when the worker stops.
+     */
+    void stopAll() {
+        List<Server> all = new ArrayList<>();
+        synchronized (this) {
+            servers.values().forEach(all::addAll);
+            servers.clear();
+        }
+        all.forEach(Server::stop);
+    }
+
+    private void scheduleEviction() {
+        if (!shutdownHook) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stopAll, "cloudquery-plugin-server-shutdown"));
+            shutdownHook = true;
+        }
+
+        if (evictor == null) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cloudquery-plugin-server-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictor.scheduleWithFixedDelay(this::evict, EVICTION_INTERVAL.toMillis(), EVICTION_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static Server start(String key, Path binary, Map<String, String> env, Duration idleTimeout) throws IOException {
+        // a short path in the temporary directory, unix socket paths are limited to about a hundred characters
+        Path directory = Files.createTempDirectory("cq-plugin", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        Path socket = directory.resolve("plugin.sock");
+        Path logFile = directory.resolve("serve.log");
+
+        ProcessBuilder builder = new ProcessBuilder(binary.toString(), "serve", "--network", "unix", "--address", socket.toString())
+            .directory(binary.getParent().toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(logFile.toFile());
+        if (env != null) {
+            builder.environment().putAll(env);
+        }
+
+        Server server = new Server(builder.start(), directory, socket, idleTimeout);
+        Instant deadline = Instant.now().plus(START_TIMEOUT);
+        while (!server.isHealthy()) {
+            if (!server.process.isAlive() || Instant.now().isAfter(deadline)) {
+                String output = Files.exists(logFile) ? Files.readString(logFile) : "";
+                server.stop();
+                throw new IOException("Unable to start the plugin server '" + key + "': " + output);
+            }
+
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                server.stop();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while starting the plugin server '" + key + "'", e);
+            }
+        }
+
+        Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        log.info("Started plugin server '{}' on {}", key, socket);
+        server.leased = true;
+        return server;
+    }
+
+    static final class Server {
+        private final Process process;
+        private final Path directory;
+        private final Path socket;
+        private Duration idleTimeout;
+        private boolean leased;
+        private Instant lastUsed = Instant.now();
+
+        private Server(Process process, Path directory, Path socket, Duration idleTimeout) {
+            this.process = process;
+            this.directory = directory;
+            this.socket = socket;
+            this.idleTimeout = idleTimeout;
+        }
+
+        /**
+         * The gRPC target of the server, as the {@code path} of a plugin of the {@code grpc} registry.
+         */
+        String address() {
+            return "unix://" + socket;
+        }
+
+        boolean isHealthy() {
+            if (!process.isAlive() || !Files.exists(socket)) {
+                return false;
+            }
+
+            try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                return channel.connect(UnixDomainSocketAddress.of(socket));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void stop() {
+            process.destroy();
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                log.debug("Unable to delete the directory of the plugin server {}", directory, e);
+            }
+        }
+    }
+}
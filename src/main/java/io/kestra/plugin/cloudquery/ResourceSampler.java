@@ -0,0 +1,383 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sample the resources used by a CloudQuery run every second.
+ * <p>
+ * In a container, a shell loop started before CloudQuery copies the cgroup and network statistics of the container
+ * into the working directory, see {@link #script()}. With the {@code PROCESS} runner, the processes started in the
+ * working directory are read from {@code /proc}, without the network which is not accounted per process.
+ */
+class ResourceSampler implements AutoCloseable {
+    static final String STATS_FILE = ".kestra_resources";
+    static final String START_STATS_FILE = ".kestra_resources_start";
+
+    private static final long INTERVAL_MS = 1000;
+    private static final long DEFAULT_CLOCK_TICKS = 100;
+    private static final List<String> CGROUP_FILES = List.of(
+        // cgroup v2
+        "/sys/fs/cgroup/cpu.stat",
+        "/sys/fs/cgroup/memory.current",
+        "/sys/fs/cgroup/memory.peak",
+        "/sys/fs/cgroup/io.stat",
+        // cgroup v1
+        "/sys/fs/cgroup/cpuacct/cpuacct.usage",
+        "/sys/fs/cgroup/memory/memory.usage_in_bytes",
+        "/sys/fs/cgroup/memory/memory.max_usage_in_bytes",
+        "/sys/fs/cgroup/blkio/blkio.throttle.io_service_bytes",
+        "/proc/net/dev"
+    );
+
+    private final RunContext runContext;
+    private final RunnerType runner;
+    private final Path workingDirectory;
+    private final Instant start = Instant.now();
+    private final ScheduledExecutorService scheduler;
+
+    // cumulative counters of the processes, kept after they exited
+    private final Map<Long, Sample> processes = new HashMap<>();
+    private Sample last;
+    private long peakMemory;
+    private double peakCpus;
+
+    private ResourceSampler(RunContext runContext, RunnerType runner, Path workingDirectory) {
+        this.runContext = runContext;
+        this.runner = runner;
+        this.workingDirectory = workingDirectory;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cloudquery-resources-" + workingDirectory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static ResourceSampler start(RunContext runContext, RunnerType runner, Path workingDirectory) {
+        ResourceSampler sampler = new ResourceSampler(runContext, runner, workingDirectory);
+        sampler.scheduler.scheduleWithFixedDelay(sampler::tick, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+        return sampler;
+    }
+
+    /**
+     * The shell commands sampling the container, to run before CloudQuery in the same shell.
+     */
+    static List<String> script() {
+        StringBuilder files = new StringBuilder();
+        CGROUP_FILES.forEach(file -> files.append(" ").append(file));
+        return List.of(
+            "kestra_resources() { for f in" + files + "; do if [ -r \"$f\" ]; then echo \"== $f\"; cat \"$f\"; fi; done; }",
+            "kestra_resources > ./" + START_STATS_FILE,
+            "( while :; do kestra_resources > ./" + STATS_FILE + ".tmp && mv ./" + STATS_FILE + ".tmp ./" + STATS_FILE + "; sleep 1; done ) &",
+            "kestra_resources_pid=$!",
+            "trap 'kill $kestra_resources_pid 2>/dev/null; kestra_resources > ./" + STATS_FILE + ".tmp && mv ./" + STATS_FILE + ".tmp ./" + STATS_FILE + "' EXIT"
+        );
+    }
+
+    /**
+     * Stop sampling and compute the usage, null if nothing could be sampled.
+     */
+    synchronized ResourceUsage usage() {
+        close();
+        sample();
+
+        try {
+            Files.deleteIfExists(workingDirectory.resolve(STATS_FILE));
+            Sample first = runner == RunnerType.PROCESS ? null : read(workingDirectory.resolve(START_STATS_FILE));
+            Files.deleteIfExists(workingDirectory.resolve(START_STATS_FILE));
+
+            if (last == null) {
+                return null;
+            }
+
+            double elapsed = Duration.between(start, last.time()).toMillis() / 1000D;
+            double cpuSeconds = last.cpuSeconds() - (first == null ? 0 : first.cpuSeconds());
+            Long peak = peakMemory > 0 ? Long.valueOf(peakMemory) : null;
+            if (last.peakMemory() != null) {
+                peak = Math.max(last.peakMemory(), peakMemory);
+            }
+            return ResourceUsage.builder()
+                .cpuSeconds(cpuSeconds)
+                .averageCpus(elapsed <= 0 ? 0 : cpuSeconds / elapsed)
+                .peakCpus(peakCpus)
+                .peakMemoryBytes(peak)
+                .networkReceivedBytes(delta(last.networkReceived(), first == null ? null : first.networkReceived()))
+                .networkSentBytes(delta(last.networkSent(), first == null ? null : first.networkSent()))
+                .diskReadBytes(delta(last.diskRead(), first == null ? null : first.diskRead()))
+                .diskWrittenBytes(delta(last.diskWritten(), first == null ? null : first.diskWritten()))
+                .build();
+        } catch (IOException e) {
+            runContext.logger().warn("Unable to read the resource usage", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void tick() {
+        try {
+            sample();
+        } catch (Exception e) {
+            runContext.logger().debug("Unable to sample the resource usage", e);
+        }
+    }
+
+    private synchronized void sample() {
+        Sample sample;
+        try {
+            sample = runner == RunnerType.PROCESS ? processes() : read(workingDirectory.resolve(STATS_FILE));
+        } catch (IOException e) {
+            runContext.logger().debug("Unable to sample the resource usage", e);
+            return;
+        }
+        if (sample == null) {
+            return;
+        }
+
+        if (sample.memory() != null) {
+            peakMemory = Math.max(peakMemory, sample.memory());
+        }
+        if (last != null) {
+            double seconds = Duration.between(last.time(), sample.time()).toMillis() / 1000D;
+            if (seconds > 0) {
+                peakCpus = Math.max(peakCpus, (sample.cpuSeconds() - last.cpuSeconds()) / seconds);
+            }
+        }
+        last = sample;
+    }
+
+    /**
+     * Sum the counters of the processes whose working directory is the one of the run, and of their children.
+     */
+    private Sample processes() throws IOException {
+        if (!Files.isDirectory(Paths.get("/proc"))) {
+            return null;
+        }
+
+        Path directory = workingDirectory.toRealPath();
+        Set<ProcessHandle> matching = new HashSet<>();
+        ProcessHandle.current().descendants()
+            .filter(process -> directory.equals(cwd(process.pid())))
+            .forEach(process -> {
+                matching.add(process);
+                process.descendants().forEach(matching::add);
+            });
+
+        long memory = 0;
+        for (ProcessHandle process : matching) {
+            Sample sample = process(process.pid());
+            if (sample != null) {
+                processes.put(process.pid(), sample);
+                memory += sample.memory();
+            }
+        }
+
+        double cpuSeconds = 0;
+        long read = 0;
+        long written = 0;
+        for (Sample sample : processes.values()) {
+            cpuSeconds += sample.cpuSeconds();
+            read += sample.diskRead() == null ? 0 : sample.diskRead();
+            written += sample.diskWritten() == null ? 0 : sample.diskWritten();
+        }
+
+        return new Sample(Instant.now(), cpuSeconds, memory, null, null, null, read, written);
+    }
+
+    private static Path cwd(long pid) {
+        try {
+            return Paths.get("/proc", String.valueOf(pid), "cwd").toRealPath();
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static Sample process(long pid) {
+        try {
+            String stat = Files.readString(Paths.get("/proc", String.valueOf(pid), "stat"));
+            // the fields after the command name, which can contain spaces, starting at the 3rd field
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            double cpuSeconds = (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) / (double) ClockTicks.VALUE;
+            // in kB whatever the page size, which is 64K on some arm64 hosts
+            Long memory = residentMemory(Files.readAllLines(Paths.get("/proc", String.valueOf(pid), "status")));
+            if (memory == null) {
+                return null;
+            }
+
+            Long read = null;
+            Long written = null;
+            Path io = Paths.get("/proc", String.valueOf(pid), "io");
+            if (Files.isReadable(io)) {
+                for (String line : Files.readAllLines(io)) {
+                    if (line.startsWith("read_bytes:")) {
+                        read = Long.parseLong(line.substring("read_bytes:".length()).trim());
+                    } else if (line.startsWith("write_bytes:")) {
+                        written = Long.parseLong(line.substring("write_bytes:".length()).trim());
+                    }
+                }
+            }
+
+            return new Sample(Instant.now(), cpuSeconds, memory, null, null, null, read, written);
+        } catch (IOException | RuntimeException e) {
+            // the process exited
+            return null;
+        }
+    }
+
+    /**
+     * The resident memory of a process from its {@code /proc/<pid>/status}, null if not found.
+     */
+    static Long residentMemory(List<String> status) {
+        for (String line : status) {
+            if (line.startsWith("VmRSS:")) {
+                String value = line.substring("VmRSS:".length()).trim();
+                if (value.endsWith("kB")) {
+                    value = value.substring(0, value.length() - 2).trim();
+                }
+                return Long.parseLong(value) * 1024;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The clock ticks per second of the CPU times of {@code /proc/<pid>/stat}, read once when first needed.
+     */
+    private static final class ClockTicks {
+        private static final long VALUE = read();
+
+        private static long read() {
+            try {
+                Process process = new ProcessBuilder("getconf", "CLK_TCK").redirectErrorStream(true).start();
+                String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+                if (process.waitFor(5, TimeUnit.SECONDS) && process.exitValue() == 0) {
+                    return Long.parseLong(output);
+                }
+            } catch (IOException | NumberFormatException e) {
+                // the default of almost every Linux kernel
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return DEFAULT_CLOCK_TICKS;
+        }
+    }
+
+    /**
+     * Parse the statistics written by the container shell loop.
+     */
+    static Sample read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        Instant time = Files.getLastModifiedTime(file).toInstant();
+        Map<String, List<String>> sections = new HashMap<>();
+        List<String> current = null;
+        for (String line : Files.readAllLines(file)) {
+            if (line.startsWith("== ")) {
+                current = new ArrayList<>();
+                sections.put(line.substring(3).trim(), current);
+            } else if (current != null) {
+                current.add(line);
+            }
+        }
+
+        return parse(time, sections);
+    }
+
+    static Sample parse(Instant time, Map<String, List<String>> sections) {
+        double cpuSeconds = 0;
+        for (String line : sections.getOrDefault("/sys/fs/cgroup/cpu.stat", List.of())) {
+            if (line.startsWith("usage_usec ")) {
+                cpuSeconds = Long.parseLong(line.substring("usage_usec ".length()).trim()) / 1_000_000D;
+            }
+        }
+        Long cpuacct = single(sections, "/sys/fs/cgroup/cpuacct/cpuacct.usage");
+        if (cpuacct != null) {
+            cpuSeconds = cpuacct / 1_000_000_000D;
+        }
+
+        Long memory = Optional.ofNullable(single(sections, "/sys/fs/cgroup/memory.current"))
+            .orElse(single(sections, "/sys/fs/cgroup/memory/memory.usage_in_bytes"));
+        Long peakMemory = Optional.ofNullable(single(sections, "/sys/fs/cgroup/memory.peak"))
+            .orElse(single(sections, "/sys/fs/cgroup/memory/memory.max_usage_in_bytes"));
+
+        Long read = null;
+        Long written = null;
+        for (String line : sections.getOrDefault("/sys/fs/cgroup/io.stat", List.of())) {
+            for (String field : line.trim().split("\\s+")) {
+                if (field.startsWith("rbytes=")) {
+                    read = (read == null ? 0 : read) + Long.parseLong(field.substring("rbytes=".length()));
+                } else if (field.startsWith("wbytes=")) {
+                    written = (written == null ? 0 : written) + Long.parseLong(field.substring("wbytes=".length()));
+                }
+            }
+        }
+        for (String line : sections.getOrDefault("/sys/fs/cgroup/blkio/blkio.throttle.io_service_bytes", List.of())) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 3 && fields[1].equals("Read")) {
+                read = (read == null ? 0 : read) + Long.parseLong(fields[2]);
+            } else if (fields.length == 3 && fields[1].equals("Write")) {
+                written = (written == null ? 0 : written) + Long.parseLong(fields[2]);
+            }
+        }
+
+        Long received = null;
+        Long sent = null;
+        for (String line : sections.getOrDefault("/proc/net/dev", List.of())) {
+            int colon = line.indexOf(':');
+            if (colon < 0 || line.substring(0, colon).trim().equals("lo")) {
+                continue;
+            }
+            String[] fields = line.substring(colon + 1).trim().split("\\s+");
+            if (fields.length >= 9) {
+                received = (received == null ? 0 : received) + Long.parseLong(fields[0]);
+                sent = (sent == null ? 0 : sent) + Long.parseLong(fields[8]);
+            }
+        }
+
+        return new Sample(time, cpuSeconds, memory, peakMemory, received, sent, read, written);
+    }
+
+    private static Long single(Map<String, List<String>> sections, String file) {
+        List<String> lines = sections.get(file);
+        if (lines == null || lines.isEmpty() || lines.getFirst().isBlank()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(lines.getFirst().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long delta(Long last, Long first) {
+        if (last == null) {
+            return null;
+        }
+        return first == null ? last : Math.max(0, last - first);
+    }
+
+    record Sample(Instant time, double cpuSeconds, Long memory, Long peakMemory, Long networkReceived, Long networkSent, Long diskRead, Long diskWritten) {
+    }
+}
@@ -0,0 +1,100 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.runners.RunContext;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class ResourceUsage {
+    @Schema(
+        title = "The CPU time consumed, in seconds."
+    )
+    private final double cpuSeconds;
+
+    @Schema(
+        title = "The average number of CPU cores used."
+    )
+    private final double averageCpus;
+
+    @Schema(
+        title = "The highest number of CPU cores used between two samples."
+    )
+    private final double peakCpus;
+
+    @Schema(
+        title = "The peak memory, in bytes."
+    )
+    private final Long peakMemoryBytes;
+
+    @Schema(
+        title = "The bytes received from the network, not available for the `PROCESS` runner."
+    )
+    private final Long networkReceivedBytes;
+
+    @Schema(
+        title = "The bytes sent to the network, not available for the `PROCESS` runner."
+    )
+    private final Long networkSentBytes;
+
+    @Schema(
+        title = "The bytes read from the disks."
+    )
+    private final Long diskReadBytes;
+
+    @Schema(
+        title = "The bytes written to the disks."
+    )
+    private final Long diskWrittenBytes;
+
+    void metrics(RunContext runContext, String... tags) {
+        runContext.metric(Counter.of("cpu.seconds", cpuSeconds, tags));
+        runContext.metric(Counter.of("cpu.average", averageCpus, tags));
+        runContext.metric(Counter.of("cpu.peak", peakCpus, tags));
+        metric(runContext, "memory.peak.bytes", peakMemoryBytes, tags);
+        metric(runContext, "network.received.bytes", networkReceivedBytes, tags);
+        metric(runContext, "network.sent.bytes", networkSentBytes, tags);
+        metric(runContext, "disk.read.bytes", diskReadBytes, tags);
+        metric(runContext, "disk.written.bytes", diskWrittenBytes, tags);
+    }
+
+    private static void metric(RunContext runContext, String name, Long value, String... tags) {
+        if (value != null) {
+            runContext.metric(Counter.of(name, value, tags));
+        }
+    }
+
+    /**
+     * Merge the usages of processes that ran concurrently, summing their peaks as an upper bound of the total peak.
+     */
+    static ResourceUsage merge(Iterable<ResourceUsage> usages) {
+        ResourceUsage result = null;
+        for (ResourceUsage usage : usages) {
+            if (usage == null) {
+                continue;
+            }
+            if (result == null) {
+                result = usage;
+                continue;
+            }
+
+            result = ResourceUsage.builder()
+                .cpuSeconds(result.cpuSeconds + usage.cpuSeconds)
+                .averageCpus(result.averageCpus + usage.averageCpus)
+                .peakCpus(result.peakCpus + usage.peakCpus)
+                .peakMemoryBytes(sum(result.peakMemoryBytes, usage.peakMemoryBytes))
+                .networkReceivedBytes(sum(result.networkReceivedBytes, usage.networkReceivedBytes))
+                .networkSentBytes(sum(result.networkSentBytes, usage.networkSentBytes))
+                .diskReadBytes(sum(result.diskReadBytes, usage.diskReadBytes))
+                .diskWrittenBytes(sum(result.diskWrittenBytes, usage.diskWrittenBytes))
+                .build();
+        }
+        return result;
+    }
+
+    private static Long sum(Long first, Long second) {
+        return first == null ? second : second == null ? first : Long.valueOf(first + second);
+    }
+}
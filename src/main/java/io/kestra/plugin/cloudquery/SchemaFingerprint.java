@@ -0,0 +1,122 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Fingerprint of everything that decides the schema of the destination tables: the plugins and their versions, the
+ * selected tables, the source specs and the destination specs. The fields of the sources named after credentials,
+ * time windows or performance settings are left out, as they change between runs without changing the tables.
+ * <p>
+ * When the fingerprint matches the one of the last successful run, the tables are already migrated. Tables altered
+ * outside of the sync are not detected.
+ */
+class SchemaFingerprint {
+    static final String STATE_NAME = "CloudQuerySchema";
+
+    private static final ObjectMapper MAPPER = JacksonMapper.ofJson().copy()
+        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    // the words of the source fields that change between runs without changing the tables, e.g. start_time or access_key_id
+    private static final Set<String> VOLATILE_WORDS = Set.of(
+        "time", "date", "since", "until", "lookback",
+        "secret", "password", "token", "credential", "credentials", "key", "auth",
+        "concurrency", "timeout", "retries", "backoff"
+    );
+
+    private final RunContext runContext;
+    private final String name;
+    private final String hash;
+    private final String previous;
+
+    private SchemaFingerprint(RunContext runContext, String name, String hash, String previous) {
+        this.runContext = runContext;
+        this.name = name;
+        this.hash = hash;
+        this.previous = previous;
+    }
+
+    static SchemaFingerprint load(RunContext runContext, String name, List<Map<String, Object>> configs) throws IOException {
+        String previous;
+        try (InputStream input = runContext.getTaskStateFile(STATE_NAME, name)) {
+            previous = new String(input.readAllBytes(), StandardCharsets.UTF_8).trim();
+        } catch (FileNotFoundException e) {
+            previous = null;
+        }
+
+        return new SchemaFingerprint(runContext, name, hash(configs), previous);
+    }
+
+    /**
+     * Whether the tables were already migrated by the last successful run.
+     */
+    boolean unchanged() {
+        return hash.equals(previous);
+    }
+
+    /**
+     * Record a successful run.
+     */
+    void save() throws IOException {
+        if (!unchanged()) {
+            runContext.putTaskStateFile(hash.getBytes(StandardCharsets.UTF_8), STATE_NAME, name);
+        }
+    }
+
+    static void delete(RunContext runContext, String name) throws IOException {
+        runContext.deleteTaskStateFile(STATE_NAME, name);
+    }
+
+    @SuppressWarnings("unchecked")
+    static String hash(List<Map<String, Object>> configs) throws IOException {
+        List<Object> relevant = new ArrayList<>(configs.size());
+        for (Map<String, Object> config : configs) {
+            Map<String, Object> spec = config.get("spec") instanceof Map ? (Map<String, Object>) config.get("spec") : Map.of();
+            if (Objects.equals(config.get("kind"), "source")) {
+                relevant.add(Map.of("kind", "source", "spec", withoutVolatileFields(spec)));
+            } else {
+                relevant.add(config);
+            }
+        }
+
+        // the order of the configurations doesn't change the tables
+        List<String> serialized = new ArrayList<>(relevant.size());
+        for (Object config : relevant) {
+            serialized.add(MAPPER.writeValueAsString(config));
+        }
+        Collections.sort(serialized);
+
+        return HexFormat.of().formatHex(IncrementalState.newDigest().digest(String.join("\n", serialized).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object withoutVolatileFields(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> result = new TreeMap<>();
+            ((Map<String, Object>) map).forEach((field, child) -> {
+                if (!isVolatile(field)) {
+                    result.put(field, withoutVolatileFields(child));
+                }
+            });
+            return result;
+        }
+        if (value instanceof List<?> list) {
+            return list.stream().map(SchemaFingerprint::withoutVolatileFields).toList();
+        }
+        return value;
+    }
+
+    static boolean isVolatile(String field) {
+        // split snake_case, kebab-case and camelCase fields into lowercase words
+        return Arrays.stream(field.split("[^A-Za-z0-9]+|(?<=[a-z0-9])(?=[A-Z])"))
+            .map(word -> word.toLowerCase(Locale.ROOT))
+            .anyMatch(VOLATILE_WORDS::contains);
+    }
+}
@@ -1,12 +1,14 @@
 package io.kestra.plugin.cloudquery;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.models.annotations.Example;
 import io.kestra.core.models.annotations.Plugin;
 import io.kestra.core.models.annotations.PluginProperty;
+import io.kestra.core.models.flows.State;
 import io.kestra.core.models.tasks.*;
+import io.kestra.core.models.tasks.runners.ScriptService;
+import io.kestra.core.models.tasks.runners.TaskException;
 import io.kestra.core.runners.RunContext;
 import io.kestra.core.serializers.JacksonMapper;
 import io.kestra.core.utils.IdUtils;
@@ -17,16 +19,20 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.*;
 import lombok.experimental.SuperBuilder;
 
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import java.io.*;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.*;
-
-import static io.kestra.core.utils.Rethrow.throwConsumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @SuperBuilder
 @ToString
@@ -91,13 +97,30 @@ import static io.kestra.core.utils.Rethrow.throwConsumer;
                     configs:
                       - sources.yml
                       - destination.yml"""
+        ),
+        @Example(
+            title = "Start a CloudQuery sync with the `cloudquery` binary installed on the worker, without any container.",
+            full = true,
+            code = """
+                id: cloudquery_sync
+                namespace: dev
+
+                tasks:
+                  - id: hn_to_duckdb
+                    type: io.kestra.plugin.cloudquery.Sync
+                    runner: PROCESS
+                    binary: /usr/local/bin/cloudquery
+                    env:
+                      CLOUDQUERY_API_KEY: "{{ secret('CLOUDQUERY_API_KEY') }}"
+                    configs:
+                      - sources.yml
+                      - destination.yml"""
         )
     }
 )
-public class Sync extends AbstractCloudQueryCommand implements RunnableTask<ScriptOutput>, NamespaceFilesInterface, InputFilesInterface, OutputFilesInterface {
-    private static final ObjectMapper OBJECT_MAPPER = JacksonMapper.ofYaml();
-    private static final String DB_FILENAME = "icrementaldb.sqlite";
-    private static final String CLOUD_QUERY_STATE = "CloudQueryState";
+public class Sync extends AbstractCloudQueryCommand implements RunnableTask<Sync.Output>, NamespaceFilesInterface, InputFilesInterface, OutputFilesInterface {
+    static final String DB_FILENAME = "icrementaldb.sqlite";
+    static final String SHARDS_STATE = DB_FILENAME + "-shards";
 
     @Schema(
         title = "CloudQuery configurations.",
@@ -113,117 +136,589 @@ public class Sync extends AbstractCloudQueryCommand implements RunnableTask<Scri
     @Schema(
         title = "Whether to use Kestra's internal backend to save incremental index.",
         description = "Kestra can automatically add a backend option to your sources and same incremental indexes in the internal storage. " +
-            "Use this boolean to activate this option."
+            "Use this boolean to activate this option. The indexes are stored compressed and are only uploaded again when their content changed."
     )
     @PluginProperty
     @Builder.Default
     private boolean incremental = false;
 
+    @Schema(
+        title = "How to store the incremental index in Kestra's internal storage.",
+        description = "`FILE` stores the whole index, compressed. `KEY_VALUE` stores a compressed snapshot of the cursors and each cursor that changed since separately, " +
+            "so that only the changed cursors are uploaded, and replaces them by a new snapshot once they are more than a quarter of the cursors. " +
+            "It is faster for large indexes where few cursors change between executions. Switching from `FILE` to `KEY_VALUE` keeps the cursors."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    private IncrementalBackend incrementalBackend = IncrementalBackend.FILE;
+
+    @Schema(
+        title = "Whether to delete the cursors of the tables that are no longer synced from the incremental index.",
+        description = "After a successful sync, the cursors whose key doesn't start with a table selected by the current sources, or one of its dependent tables, are deleted, " +
+            "then the free space of the index is reclaimed before it is uploaded. Sources without an explicit list of tables, or selecting `*`, keep every cursor. " +
+            "The cursors of removed accounts, regions or sources are not deleted as long as their tables are still selected. " +
+            "The size of the index before and after is emitted as the `state.size.before` and `state.size.after` metrics."
+    )
+    @PluginProperty
+    @Builder.Default
+    private boolean pruneIncrementalState = false;
+
+    @Schema(
+        title = "How long a cursor must be stale before being deleted by `pruneIncrementalState`.",
+        description = "Keeps the cursors of tables that are temporarily removed from the configurations. Cursors are deleted at the first successful sync without their table when not set."
+    )
+    @PluginProperty
+    private Duration incrementalStateRetention;
+
     private NamespaceFiles namespaceFiles;
 
     private Object inputFiles;
 
     private List<String> outputFiles;
 
+    @Schema(
+        title = "Interval between two checkpoints of the incremental index during the sync.",
+        description = "When set, a consistent snapshot of the incremental index is uploaded in the background at this interval while the sync runs, " +
+            "and a last one is uploaded if the sync fails, so that a retried sync resumes from the last checkpoint. " +
+            "Only used when incremental is enabled."
+    )
+    @PluginProperty
+    private Duration checkpointInterval;
+
+    @Schema(
+        title = "Number of shards to split the source tables into.",
+        description = "The tables of each source are assigned to a shard from a hash of their name, so that adding or removing a table doesn't move the other ones, and each shard is run by its own CloudQuery process. " +
+            "Sources without an explicit list of tables are run by the first shard, destinations are part of every shard. " +
+            "The `vars` and `outputFiles` of each shard are prefixed by `shard-<n>/`, the output files being searched in the working directory of each shard. " +
+            "When incremental is enabled, each shard has its own incremental index. When the number of shards changes, the new shards start from the cursors " +
+            "of the previous shards whose key mentions one of their tables, and the indexes of the previous shards are deleted after the first successful sync."
+    )
+    @PluginProperty
+    @Min(1)
+    @Builder.Default
+    private Integer shards = 1;
+
+    @Schema(
+        title = "Maximum number of shards to run concurrently.",
+        description = "Defaults to the number of shards."
+    )
+    @PluginProperty
+    @Min(1)
+    private Integer shardConcurrency;
+
+    @Schema(
+        title = "Whether to run the sources through long-lived plugin servers kept warm on the worker.",
+        description = "Only available with the `PROCESS` runner. The first sync downloads the source plugins as usual, " +
+            "the next ones on the same worker start them as gRPC servers and reuse them for the following syncs with the same spec and environment, " +
+            "skipping the plugin startup and authentication. The plugin binaries are kept in a directory only accessible to the worker user and their checksum is verified before they are started. " +
+            "Servers listen on unix sockets only accessible to the worker user, " +
+            "and are stopped after `warmPluginIdleTimeout` without any sync or when the worker stops."
+    )
+    @PluginProperty
+    @Builder.Default
+    private boolean warmPlugins = false;
+
+    @Schema(
+        title = "How long a warm plugin server is kept without any sync."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Duration warmPluginIdleTimeout = Duration.ofMinutes(10);
+
+    @Schema(
+        title = "Whether to tune the concurrency and the batch sizes automatically.",
+        description = "Fills the source `concurrency` and the destination `batch_size` and `batch_size_bytes` that the configurations don't set. " +
+            "The first values come from the CPU and memory limits of the runner, the next runs adjust them from the throughput and the memory of the previous runs: " +
+            "they grow while the sync gets faster, go back to the fastest values when it gets slower, and are halved when the sync runs out of memory. " +
+            "Runs of less than 10,000 rows or 30 seconds, like incremental runs with little new data, keep the values without comparing their throughput. " +
+            "The plugins must support these fields."
+    )
+    @PluginProperty
+    @Builder.Default
+    private boolean autoTune = false;
+
+    @Schema(
+        title = "Whether to skip the migration of the destination tables when nothing that decides their schema changed.",
+        description = "A fingerprint of the plugin versions, the selected tables, the source specs and the destination specs is stored after each successful sync. " +
+            "The source fields named after credentials, time windows or performance settings, like `start_time`, `access_key_id` or `concurrency`, are left out of it. " +
+            "When the next sync has the same fingerprint, it is started with `--no-migrate`, skipping the checks and migrations of the destination tables. " +
+            "Any change of the other fields runs a full migration. The destination tables are not inspected, so tables altered or dropped outside of Kestra are not detected: " +
+            "don't enable it if that can happen."
+    )
+    @PluginProperty
+    @Builder.Default
+    private boolean migrateOnlyOnChange = false;
+
     @Override
-    public ScriptOutput run(RunContext runContext) throws Exception {
-        CommandsWrapper commands = new CommandsWrapper(runContext)
+    public Sync.Output run(RunContext runContext) throws Exception {
+        List<Map<String, Object>> configs = SyncConfigs.read(runContext, this.configs, incremental);
+        List<SyncShards.Shard> shards = SyncShards.split(configs, this.shards == null ? 1 : this.shards);
+        PluginCache pluginCache = this.pluginCache(runContext);
+        int concurrency = Math.min(shards.size(), this.shardConcurrency == null ? shards.size() : this.shardConcurrency);
+        AutoTune autoTune = this.autoTune ? AutoTune.load(runContext, getRunner(), getDocker(), concurrency) : null;
+
+        int layout = shards.getFirst().count();
+        int previousLayout = incremental ? previousShardCount(runContext) : layout;
+        List<String> previousStates = List.of();
+        if (previousLayout != layout) {
+            runContext.logger().warn("The sync was split into {} shards and is now split into {}, " +
+                "starting the new shards from the incremental states of the previous ones", previousLayout, layout);
+            previousStates = SyncShards.stateNames(DB_FILENAME, previousLayout);
+        }
+
+        if (shards.size() == 1) {
+            ShardRun shardRun;
+            try {
+                shardRun = runShard(runContext, shards.getFirst(), pluginCache, autoTune, previousStates);
+            } catch (TaskException e) {
+                if (autoTune != null) {
+                    autoTune.failure(e.getExitCode(), null);
+                }
+                throw e;
+            }
+            ScriptOutput run = shardRun.output();
+            SyncLogConsumer.metrics(runContext, shardRun.summary());
+            if (autoTune != null) {
+                autoTune.success(shardRun.summary(), shardRun.resources() == null ? null : shardRun.resources().getPeakMemoryBytes());
+            }
+            if (previousLayout != layout) {
+                saveShardCount(runContext, layout);
+                deleteStates(runContext, previousLayout);
+            }
+            Trigger.recordSynced(runContext);
+            return Output.builder()
+                .vars(run.getVars())
+                .exitCode(run.getExitCode())
+                .outputFiles(shardRun.outputFiles())
+                .stdOutLineCount(run.getStdOutLineCount())
+                .stdErrLineCount(run.getStdErrLineCount())
+                .warningOnStdErr(run.getWarningOnStdErr())
+                .summary(shardRun.summary())
+                .resources(shardRun.resources())
+                .state(run.finalState().orElse(null))
+                .build();
+        }
+
+        runContext.logger().info("Running {} shards with a concurrency of {}", shards.size(), concurrency);
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Future<ShardRun>> futures = new ArrayList<>(shards.size());
+        List<String> migratedStates = previousStates;
+        try {
+            for (SyncShards.Shard shard : shards) {
+                futures.add(executor.submit(() -> runShard(runContext, shard, pluginCache, autoTune, migratedStates)));
+            }
+
+            Map<String, Object> vars = new HashMap<>();
+            Map<String, URI> outputFiles = new HashMap<>();
+            List<ShardOutput> shardOutputs = new ArrayList<>(shards.size());
+            List<SyncSummary> summaries = new ArrayList<>(shards.size());
+            List<ResourceUsage> resources = new ArrayList<>(shards.size());
+            int stdOutLineCount = 0;
+            int stdErrLineCount = 0;
+            Boolean warningOnStdErr = null;
+            Long peakMemory = null;
+            State.Type state = null;
+            Exception failure = null;
+            Integer failureExitCode = null;
+
+            for (int i = 0; i < shards.size(); i++) {
+                SyncShards.Shard shard = shards.get(i);
+                try {
+                    ShardRun shardRun = futures.get(i).get();
+                    ScriptOutput run = shardRun.output();
+                    summaries.add(shardRun.summary());
+                    if (shardRun.resources() != null) {
+                        resources.add(shardRun.resources());
+                        Long shardPeak = shardRun.resources().getPeakMemoryBytes();
+                        if (shardPeak != null && (peakMemory == null || shardPeak > peakMemory)) {
+                            peakMemory = shardPeak;
+                        }
+                    }
+                    if (run.getVars() != null) {
+                        vars.putAll(shard.outputs(run.getVars()));
+                    }
+                    if (shardRun.outputFiles() != null) {
+                        outputFiles.putAll(shardRun.outputFiles());
+                    }
+                    stdOutLineCount += run.getStdOutLineCount();
+                    stdErrLineCount += run.getStdErrLineCount();
+                    warningOnStdErr = run.getWarningOnStdErr();
+                    if (run.finalState().isPresent()) {
+                        state = run.finalState().get();
+                    }
+                    shardOutputs.add(new ShardOutput(shard.index(), shard.tables(), run.getExitCode(), shardRun.summary()));
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception exception ? exception : e;
+                    Integer exitCode = cause instanceof TaskException taskException ? taskException.getExitCode() : null;
+                    runContext.logger().error("Shard {} failed with exit code {}", shard.index() + 1, exitCode, cause);
+                    shardOutputs.add(new ShardOutput(shard.index(), shard.tables(), exitCode, null));
+                    if (failure == null) {
+                        failure = cause;
+                    }
+                    if (failureExitCode == null || Objects.equals(exitCode, AutoTune.OUT_OF_MEMORY_EXIT_CODE)) {
+                        failureExitCode = exitCode;
+                    }
+                }
+            }
+
+            SyncSummary summary = SyncSummary.merge(summaries);
+            SyncLogConsumer.metrics(runContext, summary);
+
+            if (autoTune != null) {
+                if (failure == null) {
+                    // the limits are the ones of each shard, so the peak of the hungriest shard is the one to compare
+                    autoTune.success(summary, peakMemory);
+                } else {
+                    autoTune.failure(failureExitCode, null);
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+            if (previousLayout != layout) {
+                saveShardCount(runContext, layout);
+                deleteStates(runContext, previousLayout);
+            }
+            Trigger.recordSynced(runContext);
+
+            return Output.builder()
+                .vars(vars)
+                .exitCode(0)
+                .outputFiles(outputFiles)
+                .stdOutLineCount(stdOutLineCount)
+                .stdErrLineCount(stdErrLineCount)
+                .warningOnStdErr(warningOnStdErr)
+                .summary(summary)
+                .resources(ResourceUsage.merge(resources))
+                .shards(shardOutputs)
+                .state(state)
+                .build();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The number of shards of the last successful incremental sync, which is part of the names of the incremental states.
+     */
+    private static int previousShardCount(RunContext runContext) throws IOException {
+        try (InputStream input = runContext.getTaskStateFile(IncrementalState.STATE_NAME, SHARDS_STATE)) {
+            return Integer.parseInt(new String(input.readAllBytes(), StandardCharsets.UTF_8).trim());
+        } catch (FileNotFoundException e) {
+            // never stored by the syncs that were not sharded
+            return 1;
+        }
+    }
+
+    private static void saveShardCount(RunContext runContext, int count) throws IOException {
+        runContext.putTaskStateFile(String.valueOf(count).getBytes(StandardCharsets.UTF_8), IncrementalState.STATE_NAME, SHARDS_STATE);
+    }
+
+    /**
+     * Delete the states of the shards of the previous layout, once the states of the new layout are stored.
+     */
+    private void deleteStates(RunContext runContext, int previousLayout) throws IOException {
+        for (String previousState : SyncShards.stateNames(DB_FILENAME, previousLayout)) {
+            incrementalBackend.open(runContext, previousState).delete();
+            new IncrementalCompaction(runContext, previousState, incrementalStateRetention).delete();
+        }
+        for (String previousFingerprint : SyncShards.stateNames("fingerprint", previousLayout)) {
+            SchemaFingerprint.delete(runContext, previousFingerprint);
+        }
+    }
+
+    /**
+     * Merge the cursors of the states of the previous shards into the state of the shard.
+     */
+    private void migrateState(RunContext runContext, Path database, String name, List<String> previousStates, List<Map<String, Object>> configs) throws IOException {
+        IncrementalCompaction compaction = new IncrementalCompaction(runContext, name, incrementalStateRetention);
+        for (String previousState : previousStates) {
+            Path previous = Files.createTempFile(previousState, ".previous");
+            try {
+                incrementalBackend.open(runContext, previousState).restore(previous);
+                int merged = compaction.merge(database, previous, configs);
+                if (merged > 0) {
+                    runContext.logger().info("Merged {} cursors of the incremental state '{}' into '{}'", merged, previousState, name);
+                }
+            } finally {
+                Files.deleteIfExists(previous);
+            }
+        }
+    }
+
+    private ShardRun runShard(RunContext runContext, SyncShards.Shard shard, PluginCache pluginCache, AutoTune autoTune, List<String> previousStates) throws Exception {
+        String[] shardTags = shard.count() > 1 ? new String[]{"shard", String.valueOf(shard.index() + 1)} : new String[0];
+        LogSampler logSampler = logSampler(runContext, shardTags);
+        SyncLogConsumer logConsumer = new SyncLogConsumer(runContext, List.of(), logSampler);
+        CommandsWrapper commands = withRunner(runContext, new CommandsWrapper(runContext))
             .withWarningOnStdErr(true)
-            .withRunnerType(RunnerType.DOCKER)
-            .withDockerOptions(injectDefaults(getDocker()))
+            .withLogConsumer(logConsumer)
             .withEnv(this.getEnv())
             .withNamespaceFiles(namespaceFiles)
-            .withInputFiles(inputFiles)
             .withOutputFiles(outputFiles);
-        
-        Path workingDirectory = commands.getWorkingDirectory();
 
-        File incrementalDBFile = new File(workingDirectory + "/" + DB_FILENAME);
+        Path workingDirectory = commands.getWorkingDirectory();
+        commands = commands.withInputFiles(stageInputFiles(runContext, workingDirectory, inputFiles));
 
-        try {
-            InputStream taskCacheFile = runContext.getTaskStateFile(CLOUD_QUERY_STATE, DB_FILENAME);
-            Files.copy(taskCacheFile, incrementalDBFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        } catch (FileNotFoundException exception) {
-            if (!incrementalDBFile.createNewFile()) {
-                throw new IOException("Unable to create incremental backend file.");
+        String dbFilename = shard.stateName(DB_FILENAME);
+        File incrementalDBFile = new File(workingDirectory + "/" + dbFilename);
+        IncrementalStore incrementalState = null;
+        List<Map<String, Object>> configs = new ArrayList<>(autoTune == null ? shard.configs() : autoTune.apply(shard.configs()));
+        SchemaFingerprint fingerprint = null;
+        if (migrateOnlyOnChange) {
+            List<Map<String, Object>> schemaConfigs = new ArrayList<>(shard.configs());
+            if (incremental) {
+                schemaConfigs.add(SyncConfigs.incrementalDestination(dbFilename));
             }
+            fingerprint = SchemaFingerprint.load(runContext, shard.stateName("fingerprint"), schemaConfigs);
         }
-
-        Map<String, Object> backendOptionsObject = getBackendOptionObject();
-        List<Map<String, Object>> configs = readConfigs(runContext, this.configs, backendOptionsObject);
         if (incremental) {
-            configs.add(getIncrementalSqliteDestination());
+            incrementalState = incrementalBackend.open(runContext, dbFilename);
+            incrementalState.restore(incrementalDBFile.toPath());
+            if (!previousStates.isEmpty()) {
+                // a state of the same name was left by an older layout, its cursors are older than the ones of the previous layout
+                Files.deleteIfExists(incrementalDBFile.toPath());
+                Files.createFile(incrementalDBFile.toPath());
+            }
+            migrateState(runContext, incrementalDBFile.toPath(), dbFilename, previousStates, shard.configs());
+            configs.add(SyncConfigs.incrementalDestination(dbFilename));
         }
 
+        List<String> pluginKeys = configs.stream().flatMap(config -> PluginCache.key(config).stream()).toList();
+        List<PluginServerPool.Server> leases = new ArrayList<>();
+        ScriptOutput run;
+        ResourceUsage resources = null;
+        URI fullLog = null;
+        try {
+            if (warmPlugins) {
+                configs = warmSources(runContext, configs, leases);
+            }
 
-        List<String> cmds = new ArrayList<>(List.of("sync"));
-        configs.forEach(throwConsumer(config -> {
+            List<String> resourceScript = resourceScript();
+            List<String> cmds = new ArrayList<>();
+            if (getRunner() == RunnerType.PROCESS || !resourceScript.isEmpty()) {
+                // otherwise, the Docker image entrypoint is already the CloudQuery binary
+                cmds.add(binary(runContext));
+            }
+            cmds.addAll(List.of("sync", "--log-console", "--log-format", "json"));
+            if (fingerprint != null && fingerprint.unchanged()) {
+                runContext.logger().info("The tables didn't change since the last successful sync, skipping the migration");
+                cmds.add("--no-migrate");
+            }
             File confFile = new File(workingDirectory + "/" + IdUtils.create() + ".yml");
-            OBJECT_MAPPER.writeValue(confFile, config);
+            SyncConfigs.write(confFile, configs);
             cmds.add(confFile.getName());
-        }));
-
-        commands = commands.withCommands(
-            cmds
-        );
 
-        ScriptOutput run = commands.run();
-        runContext.putTaskStateFile(incrementalDBFile, CLOUD_QUERY_STATE, DB_FILENAME);
-        return run;
-    }
+            if (resourceScript.isEmpty()) {
+                commands = commands.withCommands(
+                    cmds
+                );
+            } else {
+                // the container statistics are sampled by a shell started in place of the image entrypoint
+                commands = commands
+                    .withDockerOptions(injectDefaults(runContext, getDocker().toBuilder().entryPoint(List.of("")).build()))
+                    .withCommands(ScriptService.scriptCommands(
+                        List.of("/bin/sh", "-c"),
+                        resourceScript,
+                        String.join(" ", cmds.stream().map(AbstractCloudQueryCommand::quote).toList())
+                    ));
+            }
 
-    private Map<String, Object> getIncrementalSqliteDestination() {
-        return Map.of(
-            "kind", "destination",
-            "spec", Map.of(
-                "name", "kestra_incremental_db",
-                "path", "cloudquery/sqlite",
-                "version", "v2.4.10",
-                "spec", Map.of(
-                    "connection_string", DB_FILENAME
-                )
-            )
-        );
-    }
+            if (pluginCache != null) {
+                pluginCache.restore(workingDirectory, pluginKeys);
+            }
 
-    private Map<String, Object> getBackendOptionObject() {
-        return Map.of(
-            "table_name", "kestra_incremental_table",
-            "connection", "@@plugins.kestra_incremental_db.connection"
-        );
+            ResourceSampler sampler = resourceSampler(runContext, workingDirectory);
+            IncrementalCheckpoint checkpoint = incrementalState != null && checkpointInterval != null ?
+                IncrementalCheckpoint.start(runContext, incrementalState, incrementalDBFile.toPath(), checkpointInterval) :
+                null;
+            try {
+                run = commands.run();
+            } catch (Exception e) {
+                if (checkpoint != null) {
+                    try {
+                        checkpoint.checkpoint();
+                    } catch (Exception checkpointException) {
+                        // the failure of the sync is the one to report
+                        runContext.logger().warn("Unable to checkpoint the incremental state of the failed sync", checkpointException);
+                        e.addSuppressed(checkpointException);
+                    }
+                }
+                throw e;
+            } finally {
+                if (checkpoint != null) {
+                    checkpoint.close();
+                }
+                if (sampler != null) {
+                    resources = sampler.usage();
+                    if (resources != null) {
+                        resources.metrics(runContext, shardTags);
+                    }
+                }
+                if (logSampler != null) {
+                    fullLog = logSampler.close();
+                }
+            }
+        } finally {
+            // the servers leased by warmSources must be released whatever fails after
+            leases.forEach(PluginServerPool.INSTANCE::release);
+        }
+        if (pluginCache != null) {
+            pluginCache.refresh(workingDirectory);
+        }
+        if (warmPlugins) {
+            PluginServerPool.INSTANCE.harvest(workingDirectory, pluginKeys);
+        }
+        if (incrementalState != null) {
+            new IncrementalCompaction(runContext, dbFilename, incrementalStateRetention)
+                .compact(incrementalDBFile.toPath(), shard.configs(), pruneIncrementalState, shardTags);
+            incrementalState.persist(incrementalDBFile.toPath());
+        }
+        if (fingerprint != null) {
+            fingerprint.save();
+        }
+        return new ShardRun(run, shard.outputs(withFullLog(run.getOutputFiles(), FULL_LOG, fullLog)), logConsumer.summary(), resources);
     }
 
+    /**
+     * Point the sources having a warm plugin server to it, leasing the servers for the duration of the sync.
+     */
     @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> readConfigs(RunContext runContext, List<Object> configurations, Map<String, Object> backendOptionsObject) throws IllegalVariableEvaluationException, URISyntaxException, IOException {
-        List<Map<String, Object>> results = new ArrayList<>(configurations.size());
-        for (Object config : configurations) {
-            Map<String, Object> result;
-            if (config instanceof String) {
-                URI from = new URI(runContext.render((String) config));
-                try (BufferedReader inputStream = new BufferedReader(new InputStreamReader(runContext.storage().getFile(from)))) {
-                    result = OBJECT_MAPPER.readValue(inputStream, new TypeReference<>() {
-                    });
-                }
-            } else if (config instanceof Map) {
-                result = new HashMap<>((Map<String, Object>) config);
-            } else {
-                throw new IllegalVariableEvaluationException("Invalid configs type '" + configs.getClass() + "'");
+    private List<Map<String, Object>> warmSources(RunContext runContext, List<Map<String, Object>> configs, List<PluginServerPool.Server> leases) throws IllegalVariableEvaluationException, IOException {
+        if (getRunner() != RunnerType.PROCESS) {
+            runContext.logger().warn("Warm plugins are only available with the PROCESS runner, starting the plugins as usual");
+            return configs;
+        }
+
+        Map<String, String> env = getEnv() == null ? Map.of() : runContext.renderMap(getEnv());
+        List<Map<String, Object>> results = new ArrayList<>(configs.size());
+        for (Map<String, Object> config : configs) {
+            Optional<String> pluginKey = PluginCache.key(config);
+            if (!Objects.equals(config.get("kind"), "source") || pluginKey.isEmpty()) {
+                results.add(config);
+                continue;
             }
 
+            Map<String, Object> spec = (Map<String, Object>) config.get("spec");
+            MessageDigest digest = IncrementalState.newDigest();
+            digest.update(JacksonMapper.ofJson().writeValueAsBytes(new TreeMap<>(spec)));
+            digest.update(JacksonMapper.ofJson().writeValueAsBytes(new TreeMap<>(env)));
+            String specHash = HexFormat.of().formatHex(digest.digest());
 
-            if (incremental && Objects.equals(result.get("kind"), "source")) {
-                if (result.containsKey("spec")) {
-                    Map<String, Object> spec = (Map<String, Object>) result.get("spec");
-                    if (!spec.containsKey("backend_options")) {
-                        spec = new HashMap<>((Map<String, Object>) result.get("spec"));
-                        spec.put("backend_options", backendOptionsObject);
-                        result.put("spec", spec);
-                    }
-                }
+            Optional<PluginServerPool.Server> server;
+            try {
+                server = PluginServerPool.INSTANCE.lease(pluginKey.get(), specHash, env, warmPluginIdleTimeout);
+            } catch (IOException e) {
+                runContext.logger().warn("Unable to start a warm plugin server for the source '{}', starting the plugin as usual", spec.get("name"), e);
+                server = Optional.empty();
+            }
+            if (server.isEmpty()) {
+                results.add(config);
+                continue;
             }
-            results.add(result);
+            leases.add(server.get());
+
+            Map<String, Object> warmSpec = new HashMap<>(spec);
+            warmSpec.put("registry", "grpc");
+            warmSpec.put("path", server.get().address());
+            warmSpec.remove("version");
+            Map<String, Object> warmConfig = new HashMap<>(config);
+            warmConfig.put("spec", warmSpec);
+            results.add(warmConfig);
+            runContext.logger().debug("Using the warm plugin server {} for the source '{}'", server.get().address(), spec.get("name"));
         }
 
         return results;
     }
+
+    private record ShardRun(ScriptOutput output, Map<String, URI> outputFiles, SyncSummary summary, ResourceUsage resources) {
+    }
+
+    @Builder
+    @Getter
+    public static class Output implements io.kestra.core.models.tasks.Output {
+        @Schema(
+            title = "The value extracted from the output of the commands.",
+            description = "Prefixed by `shard-<n>/` when the sync is sharded."
+        )
+        private final Map<String, Object> vars;
+
+        @Schema(
+            title = "The exit code of the CloudQuery process."
+        )
+        private final Integer exitCode;
+
+        @Schema(
+            title = "The output files' URIs in Kestra's internal storage.",
+            description = "Prefixed by `shard-<n>/` when the sync is sharded."
+        )
+        @PluginProperty(additionalProperties = URI.class)
+        private final Map<String, URI> outputFiles;
+
+        @Schema(
+            title = "The standard output line count.",
+            description = "Summed over the shards when the sync is sharded."
+        )
+        private final int stdOutLineCount;
+
+        @Schema(
+            title = "The standard error line count.",
+            description = "Summed over the shards when the sync is sharded."
+        )
+        private final int stdErrLineCount;
+
+        @JsonIgnore
+        private final Boolean warningOnStdErr;
+
+        @Schema(
+            title = "The summary of the sync, parsed from the CloudQuery logs."
+        )
+        private final SyncSummary summary;
+
+        @Schema(
+            title = "The resources used by CloudQuery.",
+            description = "Only available when `resourceMetrics` is enabled, summed over the shards when the sync is sharded."
+        )
+        private final ResourceUsage resources;
+
+        @Schema(
+            title = "The result of each shard, when the sync is sharded."
+        )
+        private final List<ShardOutput> shards;
+
+        @JsonIgnore
+        private final State.Type state;
+
+        @Override
+        public Optional<State.Type> finalState() {
+            return Optional.ofNullable(this.state);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class ShardOutput {
+        @Schema(
+            title = "The index of the shard, starting at 0."
+        )
+        private final int index;
+
+        @Schema(
+            title = "The tables synced by the shard."
+        )
+        private final List<String> tables;
+
+        @Schema(
+            title = "The exit code of the shard's CloudQuery process."
+        )
+        private final Integer exitCode;
+
+        @Schema(
+            title = "The summary of the shard, parsed from the CloudQuery logs."
+        )
+        private final SyncSummary summary;
+    }
 }
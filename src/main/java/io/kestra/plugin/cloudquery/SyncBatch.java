@@ -0,0 +1,430 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.annotations.Example;
+import io.kestra.core.models.annotations.Plugin;
+import io.kestra.core.models.annotations.PluginProperty;
+import io.kestra.core.models.tasks.*;
+import io.kestra.core.models.tasks.runners.ScriptService;
+import io.kestra.core.models.tasks.runners.TaskException;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.scripts.exec.scripts.models.DockerOptions;
+import io.kestra.plugin.scripts.exec.scripts.models.ScriptOutput;
+import io.kestra.plugin.scripts.exec.scripts.runners.CommandsWrapper;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.SuperBuilder;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+
+@SuperBuilder
+@ToString
+@EqualsAndHashCode
+@Getter
+@NoArgsConstructor
+@Schema(
+    title = "Execute many CloudQuery syncs in a single runner.",
+    description = "Each tenant is an independent sync with its own configurations, environment and incremental index. " +
+        "All the tenants are run by the same container or process, `concurrency` at a time, and the plugins are downloaded only once. " +
+        "The exit code and the summary of each tenant are available in the `tenants` output."
+)
+@Plugin(
+    examples = {
+        @Example(
+            title = "Sync the S3 buckets of several AWS accounts in a single container.",
+            full = true,
+            code = """
+                id: cloudquery_batch
+                namespace: dev
+
+                tasks:
+                  - id: accounts
+                    type: io.kestra.plugin.cloudquery.SyncBatch
+                    concurrency: 8
+                    incremental: true
+                    env:
+                      CLOUDQUERY_API_KEY: "{{ secret('CLOUDQUERY_API_KEY') }}"
+                    tenants:
+                      - id: production
+                        env:
+                          AWS_ACCESS_KEY_ID: "{{ secret('PRODUCTION_AWS_ACCESS_KEY_ID') }}"
+                          AWS_SECRET_ACCESS_KEY: "{{ secret('PRODUCTION_AWS_SECRET_ACCESS_KEY') }}"
+                        configs:
+                          - sources.yml
+                          - destination.yml
+                      - id: staging
+                        env:
+                          AWS_ACCESS_KEY_ID: "{{ secret('STAGING_AWS_ACCESS_KEY_ID') }}"
+                          AWS_SECRET_ACCESS_KEY: "{{ secret('STAGING_AWS_SECRET_ACCESS_KEY') }}"
+                        configs:
+                          - sources.yml
+                          - destination.yml"""
+        )
+    }
+)
+public class SyncBatch extends AbstractCloudQueryCommand implements RunnableTask<SyncBatch.Output>, NamespaceFilesInterface, InputFilesInterface, OutputFilesInterface {
+    @Schema(
+        title = "The syncs to run."
+    )
+    @PluginProperty
+    @NotEmpty
+    @Valid
+    private List<Tenant> tenants;
+
+    @Schema(
+        title = "Maximum number of tenants to sync concurrently."
+    )
+    @PluginProperty
+    @Min(1)
+    @NotNull
+    @Builder.Default
+    private Integer concurrency = 4;
+
+    @Schema(
+        title = "Whether to use Kestra's internal backend to save incremental index.",
+        description = "Each tenant has its own incremental index, stored in Kestra's internal storage."
+    )
+    @PluginProperty
+    @Builder.Default
+    private boolean incremental = false;
+
+    @Schema(
+        title = "How to store the incremental index in Kestra's internal storage.",
+        description = "`FILE` stores the whole index, compressed. `KEY_VALUE` stores each cursor separately and only uploads the cursors that changed, " +
+            "which is faster for large indexes where few cursors change between executions. Switching from `FILE` to `KEY_VALUE` keeps the cursors."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    private IncrementalBackend incrementalBackend = IncrementalBackend.FILE;
+
+    @Schema(
+        title = "Whether to fail the task when a tenant fails.",
+        description = "When disabled, the task succeeds and the failed tenants are reported with their exit code in the `tenants` output."
+    )
+    @PluginProperty
+    @Builder.Default
+    private boolean failOnError = true;
+
+    private NamespaceFiles namespaceFiles;
+
+    private Object inputFiles;
+
+    private List<String> outputFiles;
+
+    @Override
+    public SyncBatch.Output run(RunContext runContext) throws Exception {
+        Set<String> ids = new LinkedHashSet<>();
+        for (Tenant tenant : tenants) {
+            if (!ids.add(tenant.getId())) {
+                throw new IllegalArgumentException("Duplicate tenant id '" + tenant.getId() + "'");
+            }
+        }
+
+        LogSampler logSampler = logSampler(runContext);
+        SyncLogConsumer logConsumer = new SyncLogConsumer(runContext, ids, logSampler);
+        CommandsWrapper commands = withRunner(runContext, new CommandsWrapper(runContext))
+            .withWarningOnStdErr(true)
+            .withLogConsumer(logConsumer)
+            .withEnv(this.getEnv())
+            .withNamespaceFiles(namespaceFiles)
+            .withOutputFiles(outputFiles);
+
+        Path workingDirectory = commands.getWorkingDirectory();
+        commands = commands.withInputFiles(stageInputFiles(runContext, workingDirectory, inputFiles));
+
+        Map<String, IncrementalStore> states = new HashMap<>();
+        Map<String, List<String>> files = new LinkedHashMap<>();
+        Map<String, Set<String>> pluginKeys = new LinkedHashMap<>();
+        for (Tenant tenant : tenants) {
+            List<Map<String, Object>> configs = new ArrayList<>(SyncConfigs.read(runContext, tenant.getConfigs(), incremental));
+            if (incremental) {
+                String dbFilename = dbFilename(tenant.getId());
+                IncrementalStore state = incrementalBackend.open(runContext, dbFilename);
+                state.restore(workingDirectory.resolve(dbFilename));
+                states.put(tenant.getId(), state);
+                configs.add(SyncConfigs.incrementalDestination(dbFilename));
+            }
+
+            File confFile = workingDirectory.resolve(tenant.getId() + ".yml").toFile();
+            SyncConfigs.write(confFile, configs);
+            files.put(tenant.getId(), List.of(confFile.getName()));
+            pluginKeys.put(tenant.getId(), new LinkedHashSet<>(configs.stream().flatMap(config -> PluginCache.key(config).stream()).toList()));
+
+            // only readable by the owner, and deleted by the script as soon as it started
+            Map<String, String> env = tenant.getEnv() == null ? Map.of() : runContext.renderMap(tenant.getEnv());
+            Path envFile = Files.createFile(workingDirectory.resolve(envFilename(tenant.getId())), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            Files.writeString(envFile, exports(env));
+        }
+
+        commands = commands.withCommands(
+            ScriptService.scriptCommands(
+                List.of("/bin/sh", "-c"),
+                null,
+                script(binary(runContext), files, pluginKeys)
+            )
+        );
+
+        PluginCache pluginCache = this.pluginCache(runContext);
+        if (pluginCache != null) {
+            pluginCache.restore(workingDirectory, pluginKeys.values().stream().flatMap(Collection::stream).distinct().toList());
+        }
+
+        ResourceSampler sampler = resourceSampler(runContext, workingDirectory);
+        ScriptOutput run;
+        URI fullLog = null;
+        try {
+            run = commands.run();
+        } finally {
+            for (String id : ids) {
+                Files.deleteIfExists(workingDirectory.resolve(envFilename(id)));
+            }
+            if (sampler != null) {
+                ResourceUsage usage = sampler.usage();
+                if (usage != null) {
+                    usage.metrics(runContext);
+                }
+            }
+            if (logSampler != null) {
+                fullLog = logSampler.close();
+            }
+        }
+        if (pluginCache != null) {
+            pluginCache.refresh(workingDirectory);
+        }
+
+        List<TenantOutput> tenantOutputs = new ArrayList<>(tenants.size());
+        List<SyncSummary> summaries = new ArrayList<>(tenants.size());
+        List<String> failed = new ArrayList<>();
+        for (Tenant tenant : tenants) {
+            Integer exitCode = exitCode(workingDirectory.resolve(tenant.getId() + ".exit"));
+            SyncSummary summary = logConsumer.summary(tenant.getId());
+            summaries.add(summary);
+            SyncLogConsumer.metrics(runContext, summary, "tenant", tenant.getId());
+
+            if (exitCode != null && exitCode == 0) {
+                if (states.containsKey(tenant.getId())) {
+                    states.get(tenant.getId()).persist(workingDirectory.resolve(dbFilename(tenant.getId())));
+                }
+            } else {
+                runContext.logger().error("Tenant '{}' failed with exit code {}", tenant.getId(), exitCode);
+                failed.add(tenant.getId());
+            }
+            tenantOutputs.add(new TenantOutput(tenant.getId(), exitCode, summary));
+        }
+
+        SyncSummary summary = SyncSummary.merge(summaries);
+        SyncLogConsumer.metrics(runContext, summary);
+
+        if (failOnError && !failed.isEmpty()) {
+            runContext.logger().error("{} tenants out of {} failed: {}", failed.size(), tenants.size(), failed);
+            throw new TaskException(1, run.getStdOutLineCount(), run.getStdErrLineCount());
+        }
+
+        return Output.builder()
+            .vars(run.getVars())
+            .exitCode(failed.isEmpty() ? 0 : 1)
+            .outputFiles(withFullLog(run.getOutputFiles(), FULL_LOG, fullLog))
+            .summary(summary)
+            .tenants(tenantOutputs)
+            .build();
+    }
+
+    /**
+     * The shell script installing the plugins once, then running the tenants in {@code concurrency} background lanes.
+     * Each line of a tenant is prefixed by its id, and its exit code is written in {@code <id>.exit}.
+     * <p>
+     * The environment of each tenant is read into a shell variable and its file deleted before anything else runs, so
+     * that the plugins of a tenant never see the secrets of the other tenants, neither in their environment nor in the
+     * working directory.
+     */
+    private String script(String binary, Map<String, List<String>> files, Map<String, Set<String>> pluginKeys) {
+        StringBuilder script = new StringBuilder();
+        Map<String, String> envVariables = new HashMap<>();
+        for (String id : files.keySet()) {
+            String variable = "tenant_env_" + envVariables.size();
+            envVariables.put(id, variable);
+            script.append(variable).append("=$(cat ").append(quote("./" + envFilename(id))).append("); rm -f ").append(quote("./" + envFilename(id))).append("\n");
+        }
+        resourceScript().forEach(line -> script.append(line).append("\n"));
+        script.append("CQ=").append(quote(binary)).append("\n");
+        script.append("""
+            run_tenant() {
+              id="$1"; tenant_env="$2"; shift 2
+              { ( eval "$tenant_env"; exec "$CQ" sync --log-console --log-format json "$@" ); echo $? > "./$id.exit"; } 2>&1 \\
+                | while IFS= read -r line; do printf '[%s] %s\\n' "$id" "$line"; done
+            }
+            """);
+
+        // install the plugins upfront, so that concurrent syncs don't download the same plugin at the same time
+        Set<String> installed = new HashSet<>();
+        for (Map.Entry<String, Set<String>> entry : pluginKeys.entrySet()) {
+            if (installed.containsAll(entry.getValue())) {
+                continue;
+            }
+            installed.addAll(entry.getValue());
+            script.append("( eval \"$").append(envVariables.get(entry.getKey())).append("\"; \"$CQ\" plugin install --log-console")
+                .append(arguments(files.get(entry.getKey()))).append(" )\n");
+        }
+
+        int lanes = Math.min(this.concurrency, files.size());
+        List<List<String>> lanesTenants = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            lanesTenants.add(new ArrayList<>());
+        }
+        int i = 0;
+        for (String id : files.keySet()) {
+            lanesTenants.get(i++ % lanes).add(id);
+        }
+
+        for (List<String> lane : lanesTenants) {
+            script.append("(\n");
+            lane.forEach(id -> script.append("  run_tenant ").append(quote(id)).append(" \"$").append(envVariables.get(id)).append("\"")
+                .append(arguments(files.get(id))).append("\n"));
+            script.append(") &\n");
+        }
+        script.append("wait\n");
+        // the exit code of each tenant is reported by its exit file
+        script.append("exit 0\n");
+
+        return script.toString();
+    }
+
+    private static String arguments(List<String> arguments) {
+        StringBuilder result = new StringBuilder();
+        arguments.forEach(argument -> result.append(" ").append(quote(argument)));
+        return result.toString();
+    }
+
+    private static String exports(Map<String, String> env) {
+        StringBuilder result = new StringBuilder();
+        env.forEach((key, value) -> {
+            if (!key.matches("^[a-zA-Z_][a-zA-Z0-9_]*$")) {
+                throw new IllegalArgumentException("Invalid environment variable name '" + key + "'");
+            }
+            result.append("export ").append(key).append("=").append(quote(value)).append("\n");
+        });
+        return result.toString();
+    }
+
+    private static Integer exitCode(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(Files.readString(file).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String envFilename(String tenant) {
+        return tenant + ".env";
+    }
+
+    static String dbFilename(String tenant) {
+        return Sync.DB_FILENAME.replace(".sqlite", "-" + tenant + ".sqlite");
+    }
+
+    @Override
+    protected DockerOptions injectDefaults(RunContext runContext, DockerOptions original) throws IllegalVariableEvaluationException {
+        if (original.getEntryPoint() == null || original.getEntryPoint().isEmpty()) {
+            original = original.toBuilder().entryPoint(List.of("")).build();
+        }
+        return super.injectDefaults(runContext, original);
+    }
+
+    @Builder
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Tenant {
+        @Schema(
+            title = "The id of the tenant.",
+            description = "Used to prefix the logs, tag the metrics and name the incremental index of the tenant."
+        )
+        @PluginProperty
+        @NotNull
+        @Pattern(regexp = "^[a-zA-Z0-9_-]+$")
+        private String id;
+
+        @Schema(
+            title = "CloudQuery configurations.",
+            description = "A list of CloudQuery configurations or files containing CloudQuery configurations.",
+            anyOf = {String[].class, Map[].class}
+        )
+        @PluginProperty(dynamic = false)
+        @NotEmpty
+        private List<Object> configs;
+
+        @Schema(
+            title = "Additional environment variables for the tenant's sync.",
+            description = "Only set for the CloudQuery processes of the tenant, the other tenants can't read them."
+        )
+        @PluginProperty(
+            additionalProperties = String.class,
+            dynamic = true
+        )
+        private Map<String, String> env;
+    }
+
+    @Builder
+    @Getter
+    public static class Output implements io.kestra.core.models.tasks.Output {
+        @Schema(
+            title = "The value extracted from the output of the commands."
+        )
+        private final Map<String, Object> vars;
+
+        @Schema(
+            title = "0 when all the tenants succeeded, 1 otherwise."
+        )
+        private final Integer exitCode;
+
+        @Schema(
+            title = "The output files' URIs in Kestra's internal storage."
+        )
+        @PluginProperty(additionalProperties = URI.class)
+        private final Map<String, URI> outputFiles;
+
+        @Schema(
+            title = "The summary of all the tenants, parsed from the CloudQuery logs."
+        )
+        private final SyncSummary summary;
+
+        @Schema(
+            title = "The result of each tenant."
+        )
+        private final List<TenantOutput> tenants;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class TenantOutput {
+        @Schema(
+            title = "The id of the tenant."
+        )
+        private final String id;
+
+        @Schema(
+            title = "The exit code of the tenant's CloudQuery process, null if it didn't run."
+        )
+        private final Integer exitCode;
+
+        @Schema(
+            title = "The summary of the tenant, parsed from the CloudQuery logs."
+        )
+        private final SyncSummary summary;
+    }
+}
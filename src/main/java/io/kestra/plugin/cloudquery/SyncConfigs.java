@@ -0,0 +1,142 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+
+/**
+ * Reading of the CloudQuery configurations of the sync tasks, and the configurations Kestra injects into them.
+ * <p>
+ * Configuration files are parsed once per worker: the parsed trees are cached by URI and SHA-256 of their content, so a
+ * file that changed under the same URI is parsed again.
+ */
+final class SyncConfigs {
+    static final ObjectMapper OBJECT_MAPPER = JacksonMapper.ofYaml();
+
+    private static final int CACHE_SIZE = 256;
+    private static final Map<String, Map<String, Object>> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    private SyncConfigs() {
+    }
+
+    static Map<String, Object> incrementalDestination(String dbFilename) {
+        return Map.of(
+            "kind", "destination",
+            "spec", Map.of(
+                "name", "kestra_incremental_db",
+                "path", "cloudquery/sqlite",
+                "version", "v2.4.10",
+                "spec", Map.of(
+                    "connection_string", dbFilename
+                )
+            )
+        );
+    }
+
+    static Map<String, Object> backendOptions() {
+        return Map.of(
+            "table_name", "kestra_incremental_table",
+            "connection", "@@plugins.kestra_incremental_db.connection"
+        );
+    }
+
+    /**
+     * Read the configurations, either maps or URIs of files in Kestra's internal storage, adding the Kestra backend
+     * options to the sources without any when {@code incremental} is enabled.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> read(RunContext runContext, List<Object> configurations, boolean incremental) throws IllegalVariableEvaluationException, URISyntaxException, IOException {
+        List<Map<String, Object>> results = new ArrayList<>(configurations.size());
+        for (Object config : configurations) {
+            Map<String, Object> result;
+            if (config instanceof String) {
+                URI from = new URI(runContext.render((String) config));
+                result = new HashMap<>(parse(runContext, from));
+            } else if (config instanceof Map) {
+                result = new HashMap<>((Map<String, Object>) config);
+            } else {
+                throw new IllegalVariableEvaluationException("Invalid configs type '" + config.getClass() + "'");
+            }
+
+            if (incremental && Objects.equals(result.get("kind"), "source")) {
+                if (result.containsKey("spec")) {
+                    Map<String, Object> spec = (Map<String, Object>) result.get("spec");
+                    if (!spec.containsKey("backend_options")) {
+                        spec = new HashMap<>((Map<String, Object>) result.get("spec"));
+                        spec.put("backend_options", backendOptions());
+                        result.put("spec", spec);
+                    }
+                }
+            }
+            results.add(result);
+        }
+
+        return results;
+    }
+
+    /**
+     * Write the configurations as a single multi-document YAML file.
+     */
+    static void write(File file, List<Map<String, Object>> configs) throws IOException {
+        try (SequenceWriter writer = OBJECT_MAPPER.writer().writeValues(file)) {
+            writer.writeAll(configs);
+        }
+    }
+
+    /**
+     * Parse a configuration file, from the cache when its content was already parsed.
+     * The result is read-only, as it is shared between executions.
+     */
+    static Map<String, Object> parse(RunContext runContext, URI from) throws IOException {
+        byte[] content;
+        try (InputStream inputStream = runContext.storage().getFile(from)) {
+            content = inputStream.readAllBytes();
+        }
+
+        String key = from + "#" + HexFormat.of().formatHex(IncrementalState.newDigest().digest(content));
+        Map<String, Object> cached = CACHE.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Map<String, Object> parsed = OBJECT_MAPPER.readValue(content, new TypeReference<Map<String, Object>>() {
+        });
+        Map<String, Object> result = readOnly(parsed);
+        CACHE.put(key, result);
+        return result;
+    }
+
+    static void clearCache() {
+        CACHE.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T readOnly(T value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            map.forEach((k, v) -> copy.put(k, readOnly(v)));
+            return (T) Collections.unmodifiableMap(copy);
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(item -> copy.add(readOnly(item)));
+            return (T) Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+}
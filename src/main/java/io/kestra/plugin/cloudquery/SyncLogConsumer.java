@@ -0,0 +1,152 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.models.executions.metrics.Timer;
+import io.kestra.core.models.tasks.runners.DefaultLogConsumer;
+import io.kestra.core.runners.RunContext;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Log consumer that feeds the CloudQuery JSON logs to a {@link SyncLogParser} and logs them at their own level in a
+ * readable form. Other lines, including Kestra outputs, are handled as usual.
+ * <p>
+ * When several syncs share the same output, each line is prefixed by {@code [<prefix>] } and is fed to the parser of
+ * its prefix.
+ * <p>
+ * With a {@link LogSampler}, only the lines it allows are logged, and the lines it dropped are logged before the next error.
+ * Kestra outputs are never dropped.
+ */
+class SyncLogConsumer extends DefaultLogConsumer {
+    private static final Set<String> HIDDEN_FIELDS = Set.of("level", "time", "message", "invocation-id");
+
+    private final Logger logger;
+    private final SyncLogParser parser = new SyncLogParser();
+    private final Map<String, SyncLogParser> prefixedParsers = new HashMap<>();
+    private final LogSampler sampler;
+
+    SyncLogConsumer(RunContext runContext) {
+        this(runContext, List.of());
+    }
+
+    SyncLogConsumer(RunContext runContext, Collection<String> prefixes) {
+        this(runContext, prefixes, null);
+    }
+
+    SyncLogConsumer(RunContext runContext, Collection<String> prefixes, LogSampler sampler) {
+        super(runContext);
+        this.logger = runContext.logger();
+        this.sampler = sampler;
+        prefixes.forEach(prefix -> prefixedParsers.put(prefix, new SyncLogParser()));
+    }
+
+    @Override
+    public void accept(String line, Boolean isStdErr) {
+        if (sampler != null) {
+            sampler.record(line);
+        }
+
+        SyncLogParser lineParser = this.parser;
+        String prefix = null;
+        String content = line;
+        if (!prefixedParsers.isEmpty() && line.startsWith("[")) {
+            int end = line.indexOf("] ");
+            if (end > 0 && prefixedParsers.containsKey(line.substring(1, end))) {
+                prefix = line.substring(1, end);
+                lineParser = prefixedParsers.get(prefix);
+                content = line.substring(end + 2);
+            }
+        }
+
+        Optional<JsonNode> event = lineParser.parse(content);
+        if (event.isEmpty()) {
+            if (content.startsWith("::{")) {
+                // Kestra outputs must start the line to be detected
+                super.accept(prefix != null ? content : line, isStdErr);
+            } else if (allow(Boolean.TRUE.equals(isStdErr) ? Level.WARN : Level.INFO, content, line)) {
+                super.accept(line, isStdErr);
+            }
+            return;
+        }
+
+        String message = (prefix == null ? "" : "[" + prefix + "] ") + format(event.get());
+        Level level = switch (event.get().path("level").asText()) {
+            case "trace" -> Level.TRACE;
+            case "debug" -> Level.DEBUG;
+            case "warn" -> Level.WARN;
+            case "error", "fatal", "panic" -> Level.ERROR;
+            default -> Level.INFO;
+        };
+        if (allow(level, event.get().path("message").asText(), message)) {
+            log(level, message);
+        }
+    }
+
+    private boolean allow(Level level, String key, String message) {
+        if (sampler == null) {
+            return true;
+        }
+        if (!sampler.allow(level, LogSampler.key(level, key), message)) {
+            return false;
+        }
+
+        if (level == Level.ERROR) {
+            List<LogSampler.Entry> context = sampler.drain();
+            if (!context.isEmpty()) {
+                logger.info("The {} last lines not logged before this error:", context.size());
+                context.forEach(entry -> log(entry.level(), entry.message()));
+            }
+        }
+        return true;
+    }
+
+    private void log(Level level, String message) {
+        switch (level) {
+            case TRACE, DEBUG -> logger.debug(message);
+            case WARN -> logger.warn(message);
+            case ERROR -> logger.error(message);
+            default -> logger.info(message);
+        }
+    }
+
+    SyncSummary summary() {
+        return parser.summary();
+    }
+
+    SyncSummary summary(String prefix) {
+        return prefixedParsers.get(prefix).summary();
+    }
+
+    /**
+     * Emit the metrics of the summary, with a {@code table} tag for the per-table ones.
+     */
+    static void metrics(RunContext runContext, SyncSummary summary, String... tags) {
+        runContext.metric(Counter.of("rows", summary.getRows(), tags));
+        runContext.metric(Counter.of("errors", summary.getErrors(), tags));
+        runContext.metric(Counter.of("warnings", summary.getWarnings(), tags));
+        runContext.metric(Counter.of("rows.per.second", summary.getRowsPerSecond(), tags));
+
+        summary.getTables().forEach((name, table) -> {
+            String[] tableTags = Stream.concat(Arrays.stream(tags), Stream.of("table", name)).toArray(String[]::new);
+            runContext.metric(Counter.of("table.rows", table.getRows(), tableTags));
+            runContext.metric(Counter.of("table.errors", table.getErrors(), tableTags));
+            runContext.metric(Timer.of("table.duration", table.getDuration(), tableTags));
+        });
+    }
+
+    private static String format(JsonNode event) {
+        StringBuilder builder = new StringBuilder(event.path("message").asText());
+        Iterator<Map.Entry<String, JsonNode>> fields = event.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!HIDDEN_FIELDS.contains(field.getKey())) {
+                builder.append(' ').append(field.getKey()).append('=').append(field.getValue().isTextual() ? field.getValue().asText() : field.getValue().toString());
+            }
+        }
+        return builder.toString();
+    }
+}
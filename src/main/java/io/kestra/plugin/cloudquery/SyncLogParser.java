@@ -0,0 +1,169 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kestra.core.serializers.JacksonMapper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Incremental parser of the JSON logs of CloudQuery ({@code --log-format json}), aggregating the rows, errors and
+ * durations of each table as the lines are read. Only the per-table counters are kept in memory.
+ * <p>
+ * The duration of the sync starts at its first sync event, so that the container startup, the plugin downloads and
+ * the plugin initialization are not counted in the throughput.
+ */
+class SyncLogParser {
+    private static final ObjectMapper MAPPER = JacksonMapper.ofJson();
+    private static final int MAX_TABLES = 10_000;
+    private static final String OTHER_TABLES = "_other";
+
+    private Instant start;
+    private Instant last;
+    private final boolean lazy;
+    private final Map<String, TableStats> tables = new HashMap<>();
+    private long errors;
+    private long warnings;
+
+    SyncLogParser() {
+        this(null);
+    }
+
+    /**
+     * @param start the start of the sync, or null to start at the first sync event and end at the last event
+     */
+    SyncLogParser(Instant start) {
+        this.start = start;
+        this.lazy = start == null;
+    }
+
+    /**
+     * Parse a log line, returning the JSON event if the line is a CloudQuery JSON log.
+     */
+    synchronized Optional<JsonNode> parse(String line) {
+        if (line == null || line.isEmpty() || line.charAt(0) != '{') {
+            return Optional.empty();
+        }
+
+        JsonNode event;
+        try {
+            event = MAPPER.readTree(line);
+        } catch (JsonProcessingException e) {
+            return Optional.empty();
+        }
+        if (event == null || !event.isObject() || !event.has("level")) {
+            return Optional.empty();
+        }
+
+        if (lazy) {
+            Instant now = Instant.now();
+            if (start == null && isSyncEvent(event)) {
+                start = now;
+            }
+            if (start != null) {
+                last = now;
+            }
+        }
+
+        String level = event.get("level").asText();
+        if (level.equals("error")) {
+            errors++;
+        } else if (level.equals("warn")) {
+            warnings++;
+        }
+
+        JsonNode table = event.get("table");
+        if (table != null && table.isTextual()) {
+            TableStats stats = stats(table.asText());
+            Instant time = time(event);
+            if (stats.first == null) {
+                stats.first = time;
+            }
+            stats.last = time;
+
+            if (event.has("resources")) {
+                stats.rows += event.get("resources").asLong();
+                // the errors of the table, including the ones already logged
+                stats.reportedErrors += event.path("errors").asLong();
+                stats.reported = true;
+            } else if (level.equals("error")) {
+                stats.loggedErrors++;
+            }
+        }
+
+        return Optional.of(event);
+    }
+
+    synchronized SyncSummary summary() {
+        if (lazy) {
+            return summary(last == null ? Instant.now() : last);
+        }
+        return summary(Instant.now());
+    }
+
+    synchronized SyncSummary summary(Instant end) {
+        Map<String, SyncSummary.Table> result = new TreeMap<>();
+        long rows = 0;
+        for (Map.Entry<String, TableStats> entry : tables.entrySet()) {
+            TableStats stats = entry.getValue();
+            rows += stats.rows;
+            result.put(entry.getKey(), SyncSummary.Table.builder()
+                .rows(stats.rows)
+                .errors(stats.reported ? stats.reportedErrors : stats.loggedErrors)
+                .duration(Duration.between(stats.first, stats.last))
+                .build()
+            );
+        }
+
+        Duration duration = start == null ? Duration.ZERO : Duration.between(start, end);
+        return SyncSummary.builder()
+            .rows(rows)
+            .errors(errors)
+            .warnings(warnings)
+            .duration(duration)
+            .rowsPerSecond(SyncSummary.rowsPerSecond(rows, duration))
+            .tables(result)
+            .build();
+    }
+
+    private static boolean isSyncEvent(JsonNode event) {
+        return event.has("table") || event.path("message").asText().startsWith("Start sync");
+    }
+
+    private TableStats stats(String table) {
+        TableStats stats = tables.get(table);
+        if (stats == null) {
+            // a misbehaving source must not be able to grow the map without bounds
+            stats = tables.computeIfAbsent(tables.size() < MAX_TABLES ? table : OTHER_TABLES, key -> new TableStats());
+        }
+        return stats;
+    }
+
+    private static Instant time(JsonNode event) {
+        JsonNode time = event.get("time");
+        if (time != null && time.isTextual()) {
+            try {
+                return Instant.parse(time.asText());
+            } catch (DateTimeParseException ignored) {
+                // fallback to the reception time
+            }
+        }
+        return Instant.now();
+    }
+
+    private static class TableStats {
+        private long rows;
+        private long loggedErrors;
+        private long reportedErrors;
+        private boolean reported;
+        private Instant first;
+        private Instant last;
+    }
+}
@@ -0,0 +1,146 @@
+package io.kestra.plugin.cloudquery;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Split the tables of the source configurations of a sync between a number of shards, each shard being run by its own
+ * CloudQuery process.
+ */
+final class SyncShards {
+    private SyncShards() {
+    }
+
+    /**
+     * Tables are assigned from a hash of their name, so that the shard of a table only depends on its name and the number
+     * of shards, and stays the same when other tables are added or removed. Sources without a list of tables are run by
+     * the first shard, and shards without any source are dropped.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Shard> split(List<Map<String, Object>> configs, int count) {
+        if (count <= 1) {
+            return List.of(new Shard(0, 1, configs, tables(configs)));
+        }
+
+        List<List<Map<String, Object>>> shardConfigs = new ArrayList<>(count);
+        List<Set<Integer>> shardSources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shardConfigs.add(new ArrayList<>());
+            shardSources.add(new HashSet<>());
+        }
+
+        for (int c = 0; c < configs.size(); c++) {
+            Map<String, Object> config = configs.get(c);
+            Map<String, Object> spec = config.get("spec") instanceof Map ? (Map<String, Object>) config.get("spec") : null;
+
+            if (!Objects.equals(config.get("kind"), "source")) {
+                // destinations are part of every shard
+                for (List<Map<String, Object>> shard : shardConfigs) {
+                    shard.add(config);
+                }
+                continue;
+            }
+
+            if (spec == null || !(spec.get("tables") instanceof List<?> tables)) {
+                shardConfigs.getFirst().add(config);
+                shardSources.getFirst().add(c);
+                continue;
+            }
+
+            List<List<Object>> split = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                split.add(new ArrayList<>());
+            }
+            for (Object table : tables) {
+                split.get(shardOf(table, count)).add(table);
+            }
+
+            for (int i = 0; i < count; i++) {
+                if (split.get(i).isEmpty()) {
+                    continue;
+                }
+
+                Map<String, Object> shardSpec = new HashMap<>(spec);
+                shardSpec.put("tables", split.get(i));
+                Map<String, Object> shardConfig = new HashMap<>(config);
+                shardConfig.put("spec", shardSpec);
+
+                shardConfigs.get(i).add(shardConfig);
+                shardSources.get(i).add(c);
+            }
+        }
+
+        List<Shard> shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (!shardSources.get(i).isEmpty()) {
+                shards.add(new Shard(i, count, shardConfigs.get(i), tables(shardConfigs.get(i))));
+            }
+        }
+
+        if (shards.size() == 1) {
+            return List.of(new Shard(0, 1, configs, tables(configs)));
+        }
+
+        return shards;
+    }
+
+    static int shardOf(Object table, int count) {
+        byte[] hash = IncrementalState.newDigest().digest(String.valueOf(table).getBytes(StandardCharsets.UTF_8));
+        return Math.floorMod(ByteBuffer.wrap(hash).getInt(), count);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> tables(List<Map<String, Object>> configs) {
+        return configs.stream()
+            .filter(config -> Objects.equals(config.get("kind"), "source"))
+            .filter(config -> config.get("spec") instanceof Map)
+            .map(config -> ((Map<String, Object>) config.get("spec")).get("tables"))
+            .filter(tables -> tables instanceof List)
+            .flatMap(tables -> ((List<Object>) tables).stream())
+            .map(String::valueOf)
+            .toList();
+    }
+
+    /**
+     * The names of the states of every shard when the sync is split into the given number of shards.
+     */
+    static List<String> stateNames(String name, int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(new Shard(i, count, List.of(), List.of()).stateName(name));
+        }
+        return names;
+    }
+
+    record Shard(int index, int count, List<Map<String, Object>> configs, List<String> tables) {
+        String stateName(String name) {
+            if (count <= 1) {
+                return name;
+            }
+
+            int extension = name.lastIndexOf('.');
+            if (extension < 0) {
+                return name + "-" + (index + 1) + "-of-" + count;
+            }
+            return name.substring(0, extension) + "-" + (index + 1) + "-of-" + count + name.substring(extension);
+        }
+
+        /**
+         * The name of an output of the shard, prefixed by the shard so that the outputs of the shards never collide.
+         */
+        String outputName(String name) {
+            return count <= 1 ? name : "shard-" + (index + 1) + "/" + name;
+        }
+
+        <T> Map<String, T> outputs(Map<String, T> outputs) {
+            if (outputs == null || count <= 1) {
+                return outputs;
+            }
+
+            Map<String, T> result = new HashMap<>();
+            outputs.forEach((name, value) -> result.put(outputName(name), value));
+            return result;
+        }
+    }
+}
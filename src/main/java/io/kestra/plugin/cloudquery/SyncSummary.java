@@ -0,0 +1,104 @@
+package io.kestra.plugin.cloudquery;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Builder
+@Getter
+public class SyncSummary {
+    @Schema(
+        title = "The number of rows synced."
+    )
+    private final long rows;
+
+    @Schema(
+        title = "The number of errors logged by CloudQuery."
+    )
+    private final long errors;
+
+    @Schema(
+        title = "The number of warnings logged by CloudQuery."
+    )
+    private final long warnings;
+
+    @Schema(
+        title = "The duration of the sync."
+    )
+    private final Duration duration;
+
+    @Schema(
+        title = "The number of rows synced per second."
+    )
+    private final double rowsPerSecond;
+
+    @Schema(
+        title = "The summary of each table, by table name."
+    )
+    private final Map<String, Table> tables;
+
+    /**
+     * Merge the summaries of syncs that ran concurrently, the duration being the one of the longest sync.
+     */
+    static SyncSummary merge(Iterable<SyncSummary> summaries) {
+        long rows = 0;
+        long errors = 0;
+        long warnings = 0;
+        Duration duration = Duration.ZERO;
+        Map<String, Table> tables = new TreeMap<>();
+
+        for (SyncSummary summary : summaries) {
+            rows += summary.getRows();
+            errors += summary.getErrors();
+            warnings += summary.getWarnings();
+            if (summary.getDuration().compareTo(duration) > 0) {
+                duration = summary.getDuration();
+            }
+            summary.getTables().forEach((name, table) -> tables.merge(name, table, Table::merge));
+        }
+
+        return SyncSummary.builder()
+            .rows(rows)
+            .errors(errors)
+            .warnings(warnings)
+            .duration(duration)
+            .rowsPerSecond(rowsPerSecond(rows, duration))
+            .tables(tables)
+            .build();
+    }
+
+    static double rowsPerSecond(long rows, Duration duration) {
+        return duration.toMillis() == 0 ? 0 : rows * 1000D / duration.toMillis();
+    }
+
+    @Builder
+    @Getter
+    public static class Table {
+        @Schema(
+            title = "The number of rows synced for the table."
+        )
+        private final long rows;
+
+        @Schema(
+            title = "The number of errors logged for the table."
+        )
+        private final long errors;
+
+        @Schema(
+            title = "The duration between the first and the last log of the table."
+        )
+        private final Duration duration;
+
+        Table merge(Table other) {
+            return Table.builder()
+                .rows(rows + other.rows)
+                .errors(errors + other.errors)
+                .duration(duration.compareTo(other.duration) > 0 ? duration : other.duration)
+                .build();
+        }
+    }
+}
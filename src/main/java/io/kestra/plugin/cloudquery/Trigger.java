@@ -0,0 +1,463 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import io.kestra.core.models.annotations.Example;
+import io.kestra.core.models.annotations.Plugin;
+import io.kestra.core.models.annotations.PluginProperty;
+import io.kestra.core.models.conditions.ConditionContext;
+import io.kestra.core.models.executions.Execution;
+import io.kestra.core.models.triggers.*;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.plugin.scripts.exec.scripts.models.DockerOptions;
+import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
+import io.kestra.plugin.scripts.exec.scripts.models.ScriptOutput;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.SuperBuilder;
+
+import jakarta.validation.constraints.NotNull;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+@SuperBuilder
+@ToString
+@EqualsAndHashCode
+@Getter
+@NoArgsConstructor
+@Schema(
+    title = "Trigger a flow when a cheap probe of the CloudQuery sources detects new data.",
+    description = "At each evaluation, a probe runs either a sync of a few small tables of the sources into a local database, " +
+        "or custom commands outputting a `fingerprint`. The flow is triggered when the fingerprint of the probe differs from the one of the previous probe. " +
+        "When the fingerprint is unchanged, the next probe is delayed twice as long, up to `maxInterval`, so that the sources that rarely change are probed less often.\n\n" +
+        "The `Sync` tasks of the triggered executions record the fingerprint for their trigger once they succeed, and the probes of the trigger are compared with it: " +
+        "when the sync of a change fails, the flow is triggered again by the next probe after `maxInterval`. " +
+        "When the flow has no `Sync` task, the probes are compared with the previous probe and a failed execution doesn't trigger the flow again."
+)
+@Plugin(
+    examples = {
+        @Example(
+            title = "Run a full sync only when the probe table of the source changed.",
+            full = true,
+            code = """
+                id: cloudquery_on_change
+                namespace: dev
+
+                tasks:
+                  - id: sync
+                    type: io.kestra.plugin.cloudquery.Sync
+                    incremental: true
+                    env:
+                      CLOUDQUERY_API_KEY: "{{ secret('CLOUDQUERY_API_KEY') }}"
+                    configs:
+                      - sources.yml
+                      - destination.yml
+
+                triggers:
+                  - id: probe
+                    type: io.kestra.plugin.cloudquery.Trigger
+                    interval: PT10M
+                    maxInterval: PT6H
+                    env:
+                      CLOUDQUERY_API_KEY: "{{ secret('CLOUDQUERY_API_KEY') }}"
+                    probeTables:
+                      - aws_s3_buckets
+                    configs:
+                      - sources.yml"""
+        ),
+        @Example(
+            title = "Trigger a flow when a custom probe outputs a new fingerprint.",
+            full = true,
+            code = """
+                id: cloudquery_on_change
+                namespace: dev
+
+                tasks:
+                  - id: sync
+                    type: io.kestra.plugin.cloudquery.Sync
+                    configs:
+                      - sources.yml
+                      - destination.yml
+
+                triggers:
+                  - id: probe
+                    type: io.kestra.plugin.cloudquery.Trigger
+                    commands:
+                      - echo "::{\\"outputs\\":{\\"fingerprint\\":\\"$(date +%Y%m%d)\\"}}::\""""
+        )
+    }
+)
+public class Trigger extends AbstractTrigger implements PollingTriggerInterface, TriggerOutput<Trigger.Output> {
+    static final String STATE_NAME = "CloudQueryTrigger";
+
+    private static final ObjectMapper MAPPER = JacksonMapper.ofJson();
+    private static final String PROBE_DESTINATION = "kestra_probe";
+    private static final String PROBE_DATABASE = "probe.sqlite";
+    private static final String PROBE_CONFIG = "probe.yml";
+    private static final String SYNCED_FINGERPRINT = "synced.fingerprint";
+
+    @Schema(
+        title = "The CloudQuery configurations of the sources to probe, as for the `Sync` task.",
+        description = "Only the sources are used: their `probeTables` are synced into a local SQLite database, and the fingerprint is the hash of the synced rows, " +
+            "ignoring the CloudQuery `_cq_` columns. Required unless `commands` are set."
+    )
+    @PluginProperty(dynamic = true)
+    private List<Object> configs;
+
+    @Schema(
+        title = "The tables synced by the probe.",
+        description = "Prefer small tables that change whenever the source has new data, all their rows are read at each probe. " +
+            "Defaults to the first table of each source."
+    )
+    @PluginProperty(dynamic = true)
+    private List<String> probeTables;
+
+    @Schema(
+        title = "The version of the `cloudquery/sqlite` destination plugin the probe tables are synced to."
+    )
+    @PluginProperty(dynamic = true)
+    @NotNull
+    @Builder.Default
+    private String sqliteVersion = "v2.4.10";
+
+    @Schema(
+        title = "Commands to run as probe instead of a sync of the probe tables.",
+        description = "Run with `/bin/sh -c` as for the `CloudQueryCLI` task, they must output a `fingerprint` with the Kestra outputs syntax, " +
+            "e.g. `::{\"outputs\":{\"fingerprint\":\"...\"}}::`."
+    )
+    @PluginProperty(dynamic = true)
+    private List<String> commands;
+
+    @Schema(
+        title = "Additional environment variables for the CloudQuery process."
+    )
+    @PluginProperty(
+        additionalProperties = String.class,
+        dynamic = true
+    )
+    private Map<String, String> env;
+
+    @Schema(
+        title = "The runner to use to start CloudQuery.",
+        description = "`DOCKER` starts CloudQuery in a container of the `docker.image` image, " +
+            "`PROCESS` starts the `binary` installed on the worker directly, without any container."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    private RunnerType runner = RunnerType.DOCKER;
+
+    @Schema(
+        title = "The CloudQuery binary for the `PROCESS` runner."
+    )
+    @PluginProperty(dynamic = true)
+    @NotNull
+    @Builder.Default
+    private String binary = "cloudquery";
+
+    @Schema(
+        title = "Docker options for the `DOCKER` runner."
+    )
+    @PluginProperty
+    @Builder.Default
+    private DockerOptions docker = DockerOptions.builder().build();
+
+    @Schema(
+        title = "Cache the plugins downloaded by the probe between evaluations, as for the `Sync` task."
+    )
+    @PluginProperty
+    private PluginCacheOptions pluginCache;
+
+    @Schema(
+        title = "The interval between two evaluations, which is also the shortest interval between two probes."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    private Duration interval = Duration.ofMinutes(5);
+
+    @Schema(
+        title = "The longest interval between two probes when the fingerprint doesn't change."
+    )
+    @PluginProperty
+    @NotNull
+    @Builder.Default
+    private Duration maxInterval = Duration.ofHours(6);
+
+    @Override
+    public Optional<Execution> evaluate(ConditionContext conditionContext, TriggerContext context) throws Exception {
+        RunContext runContext = conditionContext.getRunContext();
+        ProbeState state = readState(runContext);
+        Instant now = Instant.now();
+        if (state != null && state.nextProbe() != null && now.isBefore(state.nextProbe())) {
+            runContext.logger().debug("Next probe at {}", state.nextProbe());
+            return Optional.empty();
+        }
+
+        Probe probe = this.commands == null || this.commands.isEmpty() ? syncProbe(runContext) : commandsProbe(runContext);
+        String previous = state == null ? null : state.fingerprint();
+        // the fingerprint of the last successful sync triggered by this trigger, unknown when the flow has no Sync task
+        String synced = readSynced(runContext);
+        String baseline = synced == null ? previous : synced;
+
+        if (probe.fingerprint().equals(baseline)) {
+            Duration wait = backoff(state == null ? null : state.delay());
+            runContext.logger().info("Unchanged probe fingerprint, next probe in {}", wait);
+            writeState(runContext, new ProbeState(probe.fingerprint(), wait, now.plus(wait), null));
+            return Optional.empty();
+        }
+
+        // the sync of this fingerprint is still running, or failed less than maxInterval ago
+        if (probe.fingerprint().equals(previous) && state.triggeredAt() != null && now.isBefore(state.triggeredAt().plus(this.maxInterval))) {
+            runContext.logger().info("Probe fingerprint {} already triggered the flow at {}, waiting for its sync", previous, state.triggeredAt());
+            return Optional.empty();
+        }
+
+        runContext.logger().info("Probe fingerprint changed from {} to {}", baseline, probe.fingerprint());
+        writeState(runContext, new ProbeState(probe.fingerprint(), this.interval, null, now));
+
+        Output output = Output.builder()
+            .triggerId(this.getId())
+            .fingerprint(probe.fingerprint())
+            .previousFingerprint(baseline)
+            .rows(probe.rows())
+            .build();
+        return Optional.of(TriggerService.generateExecution(this, conditionContext, context, output));
+    }
+
+    /**
+     * The next wait after an unchanged probe, twice the previous one up to the maximum interval.
+     */
+    Duration backoff(Duration previous) {
+        Duration wait = previous == null ? this.interval.multipliedBy(2) : previous.multipliedBy(2);
+        return wait.compareTo(this.maxInterval) > 0 ? this.maxInterval : wait;
+    }
+
+    private Probe commandsProbe(RunContext runContext) throws Exception {
+        ScriptOutput run = cli(this.commands, Map.of(), List.of()).run(runContext);
+        Object fingerprint = run.getVars() == null ? null : run.getVars().get("fingerprint");
+        if (fingerprint == null) {
+            throw new IllegalStateException("The probe commands didn't output any `fingerprint`");
+        }
+        return new Probe(fingerprint.toString(), null);
+    }
+
+    private Probe syncProbe(RunContext runContext) throws Exception {
+        if (this.configs == null || this.configs.isEmpty()) {
+            throw new IllegalArgumentException("Either `configs` or `commands` are required");
+        }
+
+        List<Map<String, Object>> configs = probeConfigs(
+            SyncConfigs.read(runContext, this.configs, false),
+            this.probeTables == null ? null : runContext.render(this.probeTables),
+            runContext.render(this.sqliteVersion)
+        );
+        StringWriter content = new StringWriter();
+        try (SequenceWriter writer = SyncConfigs.OBJECT_MAPPER.writer().writeValues(content)) {
+            writer.writeAll(configs);
+        }
+        ScriptOutput run = cli(
+            List.of("cloudquery sync --log-console --log-format json " + PROBE_CONFIG),
+            Map.of(PROBE_CONFIG, content.toString()),
+            List.of(PROBE_DATABASE)
+        ).run(runContext);
+
+        URI database = run.getOutputFiles() == null ? null : run.getOutputFiles().get(PROBE_DATABASE);
+        if (database == null) {
+            throw new IllegalStateException("The probe sync didn't write any table");
+        }
+
+        Path file = Files.createTempFile("probe", ".sqlite");
+        try {
+            try (InputStream input = runContext.storage().getFile(database)) {
+                Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return fingerprint(file);
+        } finally {
+            Files.deleteIfExists(file);
+            // only needed for this probe, don't keep one in the internal storage at every evaluation
+            runContext.storage().deleteFile(database);
+        }
+    }
+
+    private CloudQueryCLI cli(List<String> commands, Map<String, String> inputFiles, List<String> outputFiles) {
+        return CloudQueryCLI.builder()
+            .id(this.getId())
+            .type(CloudQueryCLI.class.getName())
+            .commands(commands)
+            .env(this.env)
+            .runner(this.runner)
+            .binary(this.binary)
+            .docker(this.docker)
+            .pluginCache(this.pluginCache)
+            .inputFiles(inputFiles.isEmpty() ? null : inputFiles)
+            .outputFiles(outputFiles.isEmpty() ? null : outputFiles)
+            .build();
+    }
+
+    /**
+     * The configurations of the probe: the sources restricted to the probe tables, all writing to the probe database.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> probeConfigs(List<Map<String, Object>> configs, List<String> probeTables, String sqliteVersion) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map<String, Object> config : configs) {
+            if (!Objects.equals(config.get("kind"), "source") || !(config.get("spec") instanceof Map<?, ?> rawSpec)) {
+                continue;
+            }
+
+            Map<String, Object> spec = new HashMap<>((Map<String, Object>) rawSpec);
+            List<String> tables = probeTables;
+            if (tables == null) {
+                if (!(spec.get("tables") instanceof List<?> sourceTables) || sourceTables.isEmpty() || sourceTables.getFirst().toString().contains("*")) {
+                    throw new IllegalArgumentException("`probeTables` is required for the source '" + spec.get("name") + "' without explicit tables");
+                }
+                tables = List.of(sourceTables.getFirst().toString());
+            }
+
+            spec.put("tables", tables);
+            spec.put("skip_dependent_tables", true);
+            spec.put("destinations", List.of(PROBE_DESTINATION));
+            // the probe doesn't touch the incremental state of the sync
+            spec.remove("backend_options");
+            results.add(Map.of("kind", "source", "spec", spec));
+        }
+
+        if (results.isEmpty()) {
+            throw new IllegalArgumentException("No source to probe in the configurations");
+        }
+
+        results.add(Map.of(
+            "kind", "destination",
+            "spec", Map.of(
+                "name", PROBE_DESTINATION,
+                "path", "cloudquery/sqlite",
+                "version", sqliteVersion,
+                "spec", Map.of("connection_string", PROBE_DATABASE)
+            )
+        ));
+        return results;
+    }
+
+    /**
+     * The hash of the rows of every table of the probe database, in any order and without the CloudQuery columns,
+     * which change at every sync.
+     */
+    static Probe fingerprint(Path database) throws IOException {
+        List<String> rowHashes = new ArrayList<>();
+        try (Connection connection = IncrementalCheckpoint.connect(database)) {
+            List<String> tables = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%' ORDER BY name")) {
+                while (resultSet.next()) {
+                    tables.add(resultSet.getString(1));
+                }
+            }
+
+            for (String table : tables) {
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT * FROM \"" + table.replace("\"", "\"\"") + "\"")) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    while (resultSet.next()) {
+                        StringBuilder row = new StringBuilder(table);
+                        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                            if (!metaData.getColumnName(i).startsWith("_cq_")) {
+                                row.append('\u0000').append(metaData.getColumnName(i)).append('=').append(resultSet.getString(i));
+                            }
+                        }
+                        rowHashes.add(HexFormat.of().formatHex(IncrementalState.newDigest().digest(row.toString().getBytes(StandardCharsets.UTF_8))));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Unable to read the probe database", e);
+        }
+
+        Collections.sort(rowHashes);
+        String fingerprint = HexFormat.of().formatHex(IncrementalState.newDigest().digest(String.join("\n", rowHashes).getBytes(StandardCharsets.UTF_8)));
+        return new Probe(fingerprint, (long) rowHashes.size());
+    }
+
+    private ProbeState readState(RunContext runContext) throws IOException {
+        try (InputStream input = runContext.getTaskStateFile(STATE_NAME, stateName())) {
+            return MAPPER.readValue(input, ProbeState.class);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private void writeState(RunContext runContext, ProbeState state) throws IOException {
+        runContext.putTaskStateFile(MAPPER.writeValueAsBytes(state), STATE_NAME, stateName());
+    }
+
+    /**
+     * Record the fingerprint of the probe that triggered the execution, called by the syncs once they succeed. The
+     * fingerprint is recorded for the trigger, as the task state is shared by the triggers of the flow.
+     */
+    static void recordSynced(RunContext runContext) throws IOException {
+        if (runContext.getVariables().get("trigger") instanceof Map<?, ?> trigger &&
+            trigger.get("triggerId") instanceof String triggerId &&
+            trigger.get("fingerprint") instanceof String fingerprint) {
+            runContext.putTaskStateFile(fingerprint.getBytes(StandardCharsets.UTF_8), STATE_NAME, syncedStateName(triggerId));
+        }
+    }
+
+    private String readSynced(RunContext runContext) throws IOException {
+        try (InputStream input = runContext.getTaskStateFile(STATE_NAME, syncedStateName(this.getId()))) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8).trim();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    static String syncedStateName(String triggerId) {
+        return triggerId + "-" + SYNCED_FINGERPRINT;
+    }
+
+    private String stateName() {
+        return this.getId() + ".json";
+    }
+
+    record Probe(String fingerprint, Long rows) {
+    }
+
+    record ProbeState(String fingerprint, Duration delay, Instant nextProbe, Instant triggeredAt) {
+    }
+
+    @Builder
+    @Getter
+    public static class Output implements io.kestra.core.models.tasks.Output {
+        @Schema(
+            title = "The id of the trigger.",
+            description = "Used by the `Sync` tasks to record the fingerprint they synced for this trigger."
+        )
+        private final String triggerId;
+
+        @Schema(
+            title = "The fingerprint of the probe that triggered the flow."
+        )
+        private final String fingerprint;
+
+        @Schema(
+            title = "The fingerprint of the last successful sync triggered by this trigger, or of the previous probe when the flow has no `Sync` task, null for the first probe."
+        )
+        private final String previousFingerprint;
+
+        @Schema(
+            title = "The number of rows synced by the probe, null for a probe by commands."
+        )
+        private final Long rows;
+    }
+}
@@ -0,0 +1,82 @@
+package io.kestra.plugin.cloudquery;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class AutoTuneTest {
+    private static final AutoTune.Limits LIMITS = new AutoTune.Limits(2, 2L * 1024 * 1024 * 1024);
+
+    @Test
+    void initial() {
+        AutoTune.Tuning tuning = AutoTune.next(LIMITS, null);
+
+        assertThat(tuning.concurrency(), is(20_000));
+        assertThat(tuning.batchSizeBytes(), is(128L * 1024 * 1024));
+        assertThat(tuning.batchSize(), is(100_000));
+    }
+
+    @Test
+    void growWhileFaster() {
+        AutoTune.Tuning initial = AutoTune.initial(LIMITS);
+        AutoTune.Run last = new AutoTune.Run(initial, 1000.0, null, LIMITS.memoryBytes(), false, false, new AutoTune.Best(initial, 1000.0));
+
+        AutoTune.Tuning next = AutoTune.next(LIMITS, last);
+
+        assertThat(next.concurrency(), is(25_000));
+        assertThat(next.batchSizeBytes(), greaterThan(initial.batchSizeBytes()));
+        assertThat(AutoTune.settled(last), is(false));
+    }
+
+    @Test
+    void backToBestWhenSlower() {
+        AutoTune.Tuning best = AutoTune.initial(LIMITS);
+        AutoTune.Tuning slower = new AutoTune.Tuning(30_000, 100_000, best.batchSizeBytes());
+        AutoTune.Run last = new AutoTune.Run(slower, 500.0, null, LIMITS.memoryBytes(), false, false, new AutoTune.Best(best, 1000.0));
+
+        assertThat(AutoTune.next(LIMITS, last), is(best));
+        assertThat(AutoTune.settled(last), is(true));
+
+        AutoTune.Run settled = new AutoTune.Run(best, 1000.0, null, LIMITS.memoryBytes(), false, true, new AutoTune.Best(best, 1000.0));
+        assertThat(AutoTune.next(LIMITS, settled), is(best));
+    }
+
+    @Test
+    void holdOnSmallRuns() {
+        AutoTune.Tuning tuning = AutoTune.initial(LIMITS);
+        SyncSummary empty = SyncSummary.builder().rows(12).duration(Duration.ofSeconds(40)).rowsPerSecond(0.3).build();
+        SyncSummary quick = SyncSummary.builder().rows(50_000).duration(Duration.ofSeconds(5)).rowsPerSecond(10_000).build();
+        SyncSummary large = SyncSummary.builder().rows(50_000).duration(Duration.ofSeconds(50)).rowsPerSecond(1_000).build();
+
+        assertThat(AutoTune.rowsPerSecond(empty), nullValue());
+        assertThat(AutoTune.rowsPerSecond(quick), nullValue());
+        assertThat(AutoTune.rowsPerSecond(large), is(1_000D));
+
+        // an incremental run without new rows neither reverts nor settles the tuning
+        AutoTune.Run last = new AutoTune.Run(tuning, null, null, LIMITS.memoryBytes(), false, false, new AutoTune.Best(tuning, 1000.0));
+        assertThat(AutoTune.next(LIMITS, last), is(tuning));
+        assertThat(AutoTune.settled(last), is(false));
+    }
+
+    @Test
+    void halveOnOutOfMemory() {
+        AutoTune.Tuning tuning = new AutoTune.Tuning(40_000, 20_000, 64L * 1024 * 1024);
+        AutoTune.Run last = new AutoTune.Run(tuning, null, null, LIMITS.memoryBytes(), true, true, null);
+
+        AutoTune.Tuning next = AutoTune.next(LIMITS, last);
+
+        assertThat(next, is(new AutoTune.Tuning(20_000, 10_000, 32L * 1024 * 1024)));
+        assertThat(AutoTune.settled(last), is(false));
+    }
+
+    @Test
+    void parseBytes() {
+        assertThat(AutoTune.parseBytes("512m"), is(512L * 1024 * 1024));
+        assertThat(AutoTune.parseBytes("2G"), is(2L * 1024 * 1024 * 1024));
+        assertThat(AutoTune.parseBytes("1024kb"), is(1024L * 1024));
+        assertThat(AutoTune.parseBytes("4096"), is(4096L));
+    }
+}
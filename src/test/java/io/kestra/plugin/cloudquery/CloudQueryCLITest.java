@@ -1,5 +1,6 @@
 package io.kestra.plugin.cloudquery;
 
+import io.kestra.core.models.tasks.runners.TaskException;
 import io.kestra.core.runners.RunContext;
 import io.kestra.core.runners.RunContextFactory;
 import io.kestra.core.utils.IdUtils;
@@ -10,11 +11,15 @@ import jakarta.inject.Inject;
 import org.junit.jupiter.api.Test;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @MicronautTest
 @Testcontainers
@@ -48,4 +53,47 @@ class CloudQueryCLITest {
         assertThat(runOutput.getVars().get("customEnv"), is(envValue));
 
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void groups() throws Exception {
+        CloudQueryCLI execute = CloudQueryCLI.builder()
+            .id(IdUtils.create())
+            .type(CloudQueryCLI.class.getName())
+            .groups(List.of(
+                CloudQueryCLI.CommandGroup.builder().id("version").commands(List.of("cloudquery --version --log-console")).build(),
+                CloudQueryCLI.CommandGroup.builder().id("outputs").commands(List.of("echo \"::{\\\"outputs\\\":{\\\"group\\\":\\\"done\\\"}}::\"")).build()
+            ))
+            .build();
+
+        RunContext runContext = TestsUtils.mockRunContext(runContextFactory, execute, Map.of());
+
+        ScriptOutput runOutput = execute.run(runContext);
+
+        assertThat(runOutput.getExitCode(), is(0));
+        assertThat(runOutput.getVars().get("group"), is("done"));
+        Map<String, Map<String, Object>> groups = (Map<String, Map<String, Object>>) runOutput.getVars().get("groups");
+        assertThat(groups.get("version").get("exitCode"), is(0));
+        assertThat(groups.get("outputs").get("exitCode"), is(0));
+    }
+
+    @Test
+    void groupsFailFast() {
+        CloudQueryCLI execute = CloudQueryCLI.builder()
+            .id(IdUtils.create())
+            .type(CloudQueryCLI.class.getName())
+            .failFast(true)
+            .groups(List.of(
+                CloudQueryCLI.CommandGroup.builder().id("failing").commands(List.of("exit 1")).build(),
+                CloudQueryCLI.CommandGroup.builder().id("slow").commands(List.of("sleep 60")).build()
+            ))
+            .build();
+
+        RunContext runContext = TestsUtils.mockRunContext(runContextFactory, execute, Map.of());
+
+        // the slow group is killed as soon as the failing one exits
+        Instant start = Instant.now();
+        assertThrows(TaskException.class, () -> execute.run(runContext));
+        assertThat(Duration.between(start, Instant.now()), lessThan(Duration.ofSeconds(30)));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+@MicronautTest
+class FileStagingCacheTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void stage() throws Exception {
+        RunContext runContext = runContext();
+        URI uri = runContext.storage().putFile(new ByteArrayInputStream("kind: source".getBytes(StandardCharsets.UTF_8)), "source.yml");
+        Map<String, String> inputFiles = Map.of(
+            "configs/source.yml", uri.toString(),
+            "tables.txt", upload(runContext, "aws_ec2_instances").toString(),
+            "inline.txt", "aws_s3_buckets"
+        );
+        FileCacheOptions options = FileCacheOptions.builder().directory(Files.createTempDirectory("cache").toString()).build();
+
+        Path first = Files.createTempDirectory("working");
+        FileStagingCache.of(runContext, options).stage(runContext, first, inputFiles, false);
+        Path second = Files.createTempDirectory("working");
+        FileStagingCache.of(runContext, options).stage(runContext, second, inputFiles, false);
+
+        assertThat(Files.readString(second.resolve("configs/source.yml")), is("kind: source"));
+        assertThat(Files.readString(second.resolve("tables.txt")), is("aws_ec2_instances"));
+        assertThat(Files.readString(second.resolve("inline.txt")), is("aws_s3_buckets"));
+        assertThat(Files.isSameFile(first.resolve("tables.txt"), second.resolve("tables.txt")), is(false));
+
+        // the copies can be modified without changing the cache
+        Files.writeString(first.resolve("tables.txt"), "aws_s3_buckets");
+        Path third = Files.createTempDirectory("working");
+        FileStagingCache.of(runContext, options).stage(runContext, third, inputFiles, false);
+        assertThat(Files.readString(third.resolve("tables.txt")), is("aws_ec2_instances"));
+    }
+
+    @Test
+    void link() throws Exception {
+        RunContext runContext = runContext();
+        Map<String, String> inputFiles = Map.of("tables.txt", upload(runContext, "aws_ec2_instances").toString());
+        FileCacheOptions options = FileCacheOptions.builder().directory(Files.createTempDirectory("cache").toString()).link(true).build();
+
+        Path first = Files.createTempDirectory("working");
+        FileStagingCache.of(runContext, options).stage(runContext, first, inputFiles, true);
+        Path second = Files.createTempDirectory("working");
+        FileStagingCache.of(runContext, options).stage(runContext, second, inputFiles, true);
+
+        assertThat(Files.isSameFile(first.resolve("tables.txt"), second.resolve("tables.txt")), is(true));
+    }
+
+    @Test
+    void verify() throws Exception {
+        RunContext runContext = runContext();
+        URI uri = upload(runContext, "aws_ec2_instances");
+        Path directory = Files.createTempDirectory("cache");
+        // left by a previous worker process under the hash of other content
+        String hash = HexFormat.of().formatHex(IncrementalState.newDigest().digest("aws_ec2_instances".getBytes(StandardCharsets.UTF_8)));
+        Files.writeString(directory.resolve(hash), "aws_s3_buckets");
+
+        Path working = Files.createTempDirectory("working");
+        FileStagingCache.of(runContext, FileCacheOptions.builder().directory(directory.toString()).build())
+            .stage(runContext, working, Map.of("tables.txt", uri.toString()), false);
+
+        assertThat(Files.readString(working.resolve("tables.txt")), is("aws_ec2_instances"));
+    }
+
+    @Test
+    void uriKey() {
+        URI uri = URI.create("kestra:///company/team/flow/executions/1/source.yml");
+
+        assertThat(
+            FileStagingCache.uriKey(runContextFactory.of(Map.of("flow", Map.of("tenantId", "first", "namespace", "company.team"))), uri),
+            not(FileStagingCache.uriKey(runContextFactory.of(Map.of("flow", Map.of("tenantId", "second", "namespace", "company.team"))), uri))
+        );
+        assertThat(
+            FileStagingCache.uriKey(runContextFactory.of(Map.of("flow", Map.of("namespace", "company.team"))), uri),
+            not(FileStagingCache.uriKey(runContextFactory.of(Map.of("flow", Map.of("namespace", "company.other"))), uri))
+        );
+    }
+
+    @Test
+    void evict() throws Exception {
+        RunContext runContext = runContext();
+        Path directory = Files.createTempDirectory("cache");
+        FileCacheOptions options = FileCacheOptions.builder().directory(directory.toString()).maxSize("10b").build();
+
+        FileStagingCache cache = FileStagingCache.of(runContext, options);
+        cache.stage(runContext, Files.createTempDirectory("working"), Map.of("first.txt", upload(runContext, "12345678").toString()), false);
+        Path working = Files.createTempDirectory("working");
+        cache.stage(runContext, working, Map.of("second.txt", upload(runContext, "abcdefgh").toString()), false);
+
+        assertThat(Files.readString(working.resolve("second.txt")), is("abcdefgh"));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.count(), is(1L));
+        }
+    }
+
+    private static URI upload(RunContext runContext, String content) throws Exception {
+        return runContext.storage().putFile(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), IdUtils.create() + ".txt");
+    }
+
+    private RunContext runContext() {
+        CloudQueryCLI task = CloudQueryCLI.builder()
+            .id(IdUtils.create())
+            .type(CloudQueryCLI.class.getName())
+            .commands(List.of("cloudquery --version"))
+            .build();
+
+        return TestsUtils.mockRunContext(runContextFactory, task, Map.of());
+    }
+}
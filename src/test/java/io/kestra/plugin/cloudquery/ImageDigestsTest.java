@@ -0,0 +1,59 @@
+package io.kestra.plugin.cloudquery;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class ImageDigestsTest {
+    @Test
+    void reference() {
+        assertThat(ImageDigests.Reference.parse("ghcr.io/cloudquery/cloudquery:latest"), is(Optional.of(
+            new ImageDigests.Reference("ghcr.io/cloudquery/cloudquery", "ghcr.io", "cloudquery/cloudquery", "latest")
+        )));
+        assertThat(ImageDigests.Reference.parse("alpine"), is(Optional.of(
+            new ImageDigests.Reference("alpine", "registry-1.docker.io", "library/alpine", "latest")
+        )));
+        assertThat(ImageDigests.Reference.parse("docker.io/bitnami/redis:7.2"), is(Optional.of(
+            new ImageDigests.Reference("docker.io/bitnami/redis", "registry-1.docker.io", "bitnami/redis", "7.2")
+        )));
+        assertThat(ImageDigests.Reference.parse("localhost:5000/cloudquery"), is(Optional.of(
+            new ImageDigests.Reference("localhost:5000/cloudquery", "localhost:5000", "cloudquery", "latest")
+        )));
+        assertThat(ImageDigests.Reference.parse("ghcr.io/cloudquery/cloudquery@sha256:0123"), is(Optional.empty()));
+    }
+
+    @Test
+    void challenge() {
+        Map<String, String> parameters = ImageDigests.challenge("Bearer realm=\"https://ghcr.io/token\",service=\"ghcr.io\",scope=\"repository:cloudquery/cloudquery:pull\"");
+
+        assertThat(parameters.get("realm"), is("https://ghcr.io/token"));
+        assertThat(parameters.get("service"), is("ghcr.io"));
+        assertThat(parameters.get("scope"), is("repository:cloudquery/cloudquery:pull"));
+        assertThat(ImageDigests.challenge("Basic realm=\"registry\""), anEmptyMap());
+    }
+
+    @Test
+    void pin() {
+        ImageDigests digests = new ImageDigests();
+
+        Optional<String> pinned = digests.pin(AbstractCloudQueryCommand.DEFAULT_IMAGE, Duration.ofHours(1));
+
+        assertThat(pinned.isPresent(), is(true));
+        assertThat(pinned.get(), startsWith("ghcr.io/cloudquery/cloudquery@sha256:"));
+        assertThat(digests.pin(AbstractCloudQueryCommand.DEFAULT_IMAGE, Duration.ofHours(1)), is(pinned));
+    }
+
+    @Test
+    void unresolved() {
+        ImageDigests digests = new ImageDigests();
+
+        assertThat(digests.pin("localhost:1/cloudquery:latest", Duration.ofHours(1)), is(Optional.empty()));
+        // the failure is cached, the registry is not looked up again
+        assertThat(digests.pin("localhost:1/cloudquery:latest", Duration.ofHours(1)), is(Optional.empty()));
+    }
+}
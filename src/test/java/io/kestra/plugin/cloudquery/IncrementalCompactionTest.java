@@ -0,0 +1,139 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+@MicronautTest
+class IncrementalCompactionTest {
+    private static final List<Map<String, Object>> CONFIGS = List.of(
+        Map.of("kind", "source", "spec", Map.of("name", "aws", "tables", List.of("aws_ec2_*"), "skip_tables", List.of("aws_ec2_images"))),
+        Map.of("kind", "destination", "spec", Map.of("name", "postgresql"))
+    );
+
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void prune() throws Exception {
+        RunContext runContext = runContext();
+        Path file = database();
+
+        long before = Files.size(file);
+        int pruned = new IncrementalCompaction(runContext, IdUtils.create(), null).compact(file, CONFIGS, true);
+
+        assertThat(pruned, is(2));
+        assertThat(count(file), is(1L));
+        assertThat(Files.size(file), lessThan(before));
+    }
+
+    @Test
+    void retention() throws Exception {
+        RunContext runContext = runContext();
+        String name = IdUtils.create();
+        Path file = database();
+
+        assertThat(new IncrementalCompaction(runContext, name, Duration.ofDays(1)).compact(file, CONFIGS, true), is(0));
+        assertThat(count(file), is(3L));
+
+        Thread.sleep(50);
+        assertThat(new IncrementalCompaction(runContext, name, Duration.ofMillis(10)).compact(file, CONFIGS, true), is(2));
+        assertThat(count(file), is(1L));
+    }
+
+    @Test
+    void allTables() throws Exception {
+        Path file = database();
+
+        int pruned = new IncrementalCompaction(runContext(), IdUtils.create(), null)
+            .compact(file, List.of(Map.of("kind", "source", "spec", Map.of("name", "aws", "tables", List.of("*")))), true);
+
+        assertThat(pruned, is(0));
+        assertThat(count(file), is(3L));
+    }
+
+    @Test
+    void matcher() {
+        IncrementalCompaction.Matcher matcher = IncrementalCompaction.Matcher.of(List.of(
+            Map.of("kind", "source", "spec", Map.of("name", "aws", "tables", List.of("aws_cloudtrail_events", "aws_s3_buckets", "aws_iam_policies")))
+        )).orElseThrow();
+
+        // the ids joined to the table with '_' or any other separator
+        assertThat(matcher.matches("aws_cloudtrail_events_123456789012_us-east-1"), is(true));
+        assertThat(matcher.matches("aws:aws_cloudtrail_events|123456789012"), is(true));
+        assertThat(matcher.matches("aws_cloudwatch_alarms_123456789012"), is(false));
+        // the dependent tables
+        assertThat(matcher.matches("aws_s3_bucket_policies_123456789012"), is(true));
+        assertThat(matcher.matches("aws_iam_policy_versions_123456789012"), is(true));
+        assertThat(matcher.matches("aws_ec2_instances_123456789012"), is(false));
+
+        IncrementalCompaction.Matcher skipDependents = IncrementalCompaction.Matcher.of(List.of(
+            Map.of("kind", "source", "spec", Map.of("name", "aws", "tables", List.of("aws_s3_buckets"), "skip_dependent_tables", true))
+        )).orElseThrow();
+        assertThat(skipDependents.matches("aws_s3_bucket_policies_123456789012"), is(false));
+        assertThat(skipDependents.matches("aws_s3_buckets_123456789012"), is(true));
+    }
+
+    @Test
+    void merge() throws Exception {
+        Path previous = database();
+        Path file = Files.createTempFile("state", ".sqlite");
+
+        int merged = new IncrementalCompaction(runContext(), IdUtils.create(), null).merge(file, previous, CONFIGS);
+
+        // only the cursor of the tables of the configurations, the skipped and removed tables are not merged
+        assertThat(merged, is(1));
+        assertThat(count(file), is(1L));
+        assertThat(new IncrementalCompaction(runContext(), IdUtils.create(), null).merge(file, previous, CONFIGS), is(0));
+    }
+
+    private RunContext runContext() {
+        Sync task = Sync.builder()
+            .id(IdUtils.create())
+            .type(Sync.class.getName())
+            .configs(List.of())
+            .incremental(true)
+            .build();
+
+        return TestsUtils.mockRunContext(runContextFactory, task, Map.of());
+    }
+
+    private static Path database() throws Exception {
+        Path file = Files.createTempFile("state", ".sqlite");
+        try (Connection connection = IncrementalCheckpoint.connect(file);
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE kestra_incremental_table (key TEXT PRIMARY KEY, value TEXT)");
+            statement.executeUpdate("INSERT INTO kestra_incremental_table VALUES ('aws_ec2_instances|123456789012', '2024-01-01')");
+            statement.executeUpdate("INSERT INTO kestra_incremental_table VALUES ('aws_ec2_images|123456789012', '2024-01-01')");
+            // a removed table, with a large cursor so that the vacuum reclaims pages
+            statement.executeUpdate("INSERT INTO kestra_incremental_table VALUES ('aws_s3_buckets|123456789012', hex(randomblob(50000)))");
+        }
+        return file;
+    }
+
+    private static long count(Path database) throws Exception {
+        try (Connection connection = IncrementalCheckpoint.connect(database);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM kestra_incremental_table")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
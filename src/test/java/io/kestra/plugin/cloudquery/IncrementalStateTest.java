@@ -0,0 +1,53 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@MicronautTest
+class IncrementalStateTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void run() throws Exception {
+        Sync task = Sync.builder()
+            .id(IdUtils.create())
+            .type(Sync.class.getName())
+            .configs(List.of())
+            .incremental(true)
+            .build();
+
+        RunContext runContext = TestsUtils.mockRunContext(runContextFactory, task, Map.of());
+        String name = IdUtils.create() + ".sqlite";
+        Path file = Files.createTempFile("state", ".sqlite");
+
+        IncrementalState state = new IncrementalState(runContext, name);
+        state.restore(file);
+        assertThat(Files.size(file), is(0L));
+
+        Files.writeString(file, "cursor".repeat(1000));
+        assertThat(state.persist(file), is(true));
+
+        Path restored = Files.createTempFile("state", ".sqlite");
+        IncrementalState next = new IncrementalState(runContext, name);
+        next.restore(restored);
+        assertThat(Files.readString(restored), is("cursor".repeat(1000)));
+        assertThat(next.persist(restored), is(false));
+
+        Files.writeString(restored, "changed");
+        assertThat(next.persist(restored), is(true));
+    }
+}
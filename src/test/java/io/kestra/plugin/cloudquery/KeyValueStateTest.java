@@ -0,0 +1,110 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@MicronautTest
+class KeyValueStateTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void run() throws Exception {
+        Sync task = Sync.builder()
+            .id(IdUtils.create())
+            .type(Sync.class.getName())
+            .configs(List.of())
+            .incremental(true)
+            .incrementalBackend(IncrementalBackend.KEY_VALUE)
+            .build();
+
+        RunContext runContext = TestsUtils.mockRunContext(runContextFactory, task, Map.of());
+        String name = IdUtils.create() + ".sqlite";
+        Path file = Files.createTempFile("state", ".sqlite");
+
+        KeyValueState state = new KeyValueState(runContext, name);
+        state.restore(file);
+        assertThat(state.persist(file), is(false));
+
+        execute(file,
+            "CREATE TABLE kestra_incremental_table (key TEXT PRIMARY KEY, value TEXT)",
+            "INSERT INTO kestra_incremental_table VALUES ('aws_s3_buckets', '2024-01-01')",
+            "INSERT INTO kestra_incremental_table VALUES ('aws_ec2_instances', '2024-01-02')"
+        );
+        for (int i = 0; i < 6; i++) {
+            execute(file, "INSERT INTO kestra_incremental_table VALUES ('aws_table_" + i + "', '2024-01-03')");
+        }
+        assertThat(state.persist(file), is(true));
+        // the first upload is a single snapshot
+        assertThrows(FileNotFoundException.class, () -> runContext.getTaskStateFile(IncrementalState.STATE_NAME, KeyValueState.filename(name, "aws_s3_buckets")));
+
+        Path restored = Files.createTempFile("state", ".sqlite");
+        KeyValueState next = new KeyValueState(runContext, name);
+        next.restore(restored);
+        assertThat(value(restored, "aws_ec2_instances"), is("2024-01-02"));
+        assertThat(next.persist(restored), is(false));
+
+        // a few changed cursors are uploaded on their own
+        execute(restored, "UPDATE kestra_incremental_table SET value = '2024-02-01' WHERE key = 'aws_s3_buckets'");
+        assertThat(next.persist(restored), is(true));
+        runContext.getTaskStateFile(IncrementalState.STATE_NAME, KeyValueState.filename(name, "aws_s3_buckets")).close();
+
+        Path last = Files.createTempFile("state", ".sqlite");
+        new KeyValueState(runContext, name).restore(last);
+        assertThat(value(last, "aws_s3_buckets"), is("2024-02-01"));
+        assertThat(value(last, "aws_ec2_instances"), is("2024-01-02"));
+        assertThat(value(last, "aws_table_5"), is("2024-01-03"));
+
+        // the cursors of removed keys are deleted from the state
+        KeyValueState pruned = new KeyValueState(runContext, name);
+        pruned.restore(last);
+        execute(last, "DELETE FROM kestra_incremental_table WHERE key = 'aws_s3_buckets'");
+        assertThat(pruned.persist(last), is(true));
+        assertThrows(FileNotFoundException.class, () -> runContext.getTaskStateFile(IncrementalState.STATE_NAME, KeyValueState.filename(name, "aws_s3_buckets")));
+
+        // many changed cursors are stored in a new snapshot
+        execute(last, "UPDATE kestra_incremental_table SET value = '2024-03-01'");
+        assertThat(pruned.persist(last), is(true));
+        assertThrows(FileNotFoundException.class, () -> runContext.getTaskStateFile(IncrementalState.STATE_NAME, KeyValueState.filename(name, "aws_table_0")));
+
+        Path compacted = Files.createTempFile("state", ".sqlite");
+        new KeyValueState(runContext, name).restore(compacted);
+        assertThat(value(compacted, "aws_table_0"), is("2024-03-01"));
+        assertThat(value(compacted, "aws_s3_buckets"), is((String) null));
+    }
+
+    private static void execute(Path database, String... statements) throws Exception {
+        try (Connection connection = IncrementalCheckpoint.connect(database);
+             Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.executeUpdate(sql);
+            }
+        }
+    }
+
+    private static String value(Path database, String key) throws Exception {
+        try (Connection connection = IncrementalCheckpoint.connect(database);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT value FROM kestra_incremental_table WHERE key = '" + key + "'")) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+import org.slf4j.event.Level;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@MicronautTest
+class LogSamplerTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void sample() throws Exception {
+        RunContext runContext = runContext();
+        LogSampler sampler = new LogSampler(runContext, LogSamplingOptions.builder()
+            .rateLimits(Map.of("DEBUG", 2))
+            .repeatThreshold(3)
+            .interval(Duration.ofHours(1))
+            .bufferSize(5)
+            .build());
+
+        int repeated = 0;
+        for (int i = 0; i < 10; i++) {
+            String message = "table sync finished rows=" + i;
+            sampler.record(message);
+            if (sampler.allow(Level.INFO, LogSampler.key(Level.INFO, message), message)) {
+                repeated++;
+            }
+        }
+        assertThat(repeated, is(3));
+
+        int limited = 0;
+        for (int i = 0; i < 10; i++) {
+            String message = "resolving table aws_table_" + (char) ('a' + i);
+            sampler.record(message);
+            if (sampler.allow(Level.DEBUG, LogSampler.key(Level.DEBUG, message), message)) {
+                limited++;
+            }
+        }
+        // the lines can be spread on two seconds
+        assertThat(limited, allOf(greaterThanOrEqualTo(2), lessThanOrEqualTo(4)));
+
+        List<LogSampler.Entry> buffered = sampler.drain();
+        assertThat(buffered.size(), is(5));
+        assertThat(buffered.getLast().message(), startsWith("resolving table"));
+        assertThat(sampler.drain().isEmpty(), is(true));
+
+        URI fullLog = sampler.close();
+        try (InputStream input = new GZIPInputStream(runContext.storage().getFile(fullLog))) {
+            String content = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+            assertThat(content.lines().count(), is(20L));
+        }
+    }
+
+    @Test
+    void key() {
+        assertThat(LogSampler.key(Level.INFO, "synced 123 rows in 45ms"), is("INFO synced # rows in #ms"));
+    }
+
+    private RunContext runContext() {
+        CloudQueryCLI task = CloudQueryCLI.builder()
+            .id(IdUtils.create())
+            .type(CloudQueryCLI.class.getName())
+            .commands(List.of("cloudquery --version"))
+            .build();
+
+        return TestsUtils.mockRunContext(runContextFactory, task, Map.of());
+    }
+}
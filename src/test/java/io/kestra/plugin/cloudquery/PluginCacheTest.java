@@ -0,0 +1,74 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@MicronautTest
+class PluginCacheTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void key() {
+        assertThat(
+            PluginCache.key(Map.of("kind", "source", "spec", Map.of("path", "cloudquery/aws", "version", "v22.14.0"))),
+            is(Optional.of("source/cloudquery/aws/v22.14.0"))
+        );
+        assertThat(
+            PluginCache.key(Map.of("kind", "source", "spec", Map.of("registry", "grpc", "path", "localhost:7777"))),
+            is(Optional.empty())
+        );
+    }
+
+    @Test
+    void local() throws Exception {
+        CloudQueryCLI task = CloudQueryCLI.builder()
+            .id(IdUtils.create())
+            .type(CloudQueryCLI.class.getName())
+            .commands(List.of("cloudquery --version"))
+            .build();
+        RunContext runContext = TestsUtils.mockRunContext(runContextFactory, task, Map.of());
+        Path cache = Files.createTempDirectory("cache");
+        PluginCacheOptions options = PluginCacheOptions.builder()
+            .type(PluginCacheOptions.Type.LOCAL)
+            .directory(cache.toString())
+            .build();
+
+        Path first = Files.createTempDirectory("first");
+        Path plugin = first.resolve(".cq/plugins/source/cloudquery/aws/v22.14.0/plugin");
+        Files.createDirectories(plugin.getParent());
+        Files.writeString(plugin, "binary");
+        PluginCache.of(runContext, options, RunnerType.PROCESS).refresh(first);
+
+        Path second = Files.createTempDirectory("second");
+        PluginCache.of(runContext, options, RunnerType.PROCESS).restore(second, List.of("source/cloudquery/aws/v22.14.0", "destination/cloudquery/file/v3.4.8"));
+
+        Path restored = second.resolve(".cq/plugins/source/cloudquery/aws/v22.14.0/plugin");
+        assertThat(Files.readString(restored), is("binary"));
+        assertThat(Files.exists(second.resolve(".cq/plugins/destination")), is(false));
+        assertThat(Files.isDirectory(cache.resolve(PluginCache.platform(RunnerType.PROCESS))), is(true));
+
+        // the plugins of another platform are never restored
+        Path other = cache.resolve("other-arch/source/cloudquery/gcp/v11.0.0/plugin");
+        Files.createDirectories(other.getParent());
+        Files.writeString(other, "binary");
+        Path third = Files.createTempDirectory("third");
+        PluginCache.of(runContext, options, RunnerType.PROCESS).restore(third, List.of("source/cloudquery/gcp/v11.0.0"));
+        assertThat(Files.exists(third.resolve(".cq/plugins/source/cloudquery/gcp")), is(false));
+    }
+}
@@ -0,0 +1,59 @@
+package io.kestra.plugin.cloudquery;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class ResourceSamplerTest {
+    @Test
+    void cgroupV2() {
+        ResourceSampler.Sample sample = ResourceSampler.parse(Instant.now(), Map.of(
+            "/sys/fs/cgroup/cpu.stat", List.of("usage_usec 2500000", "user_usec 2000000", "system_usec 500000"),
+            "/sys/fs/cgroup/memory.current", List.of("104857600"),
+            "/sys/fs/cgroup/memory.peak", List.of("209715200"),
+            "/sys/fs/cgroup/io.stat", List.of("8:0 rbytes=1000 wbytes=2000 rios=1 wios=2 dbytes=0 dios=0", "8:16 rbytes=10 wbytes=20 rios=1 wios=2 dbytes=0 dios=0"),
+            "/proc/net/dev", List.of(
+                "Inter-|   Receive                                                |  Transmit",
+                " face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed",
+                "    lo:     500       5    0    0    0     0          0         0      500       5    0    0    0     0       0          0",
+                "  eth0:    3000      30    0    0    0     0          0         0     4000      40    0    0    0     0       0          0"
+            )
+        ));
+
+        assertThat(sample.cpuSeconds(), is(2.5));
+        assertThat(sample.memory(), is(104857600L));
+        assertThat(sample.peakMemory(), is(209715200L));
+        assertThat(sample.diskRead(), is(1010L));
+        assertThat(sample.diskWritten(), is(2020L));
+        assertThat(sample.networkReceived(), is(3000L));
+        assertThat(sample.networkSent(), is(4000L));
+    }
+
+    @Test
+    void cgroupV1() {
+        ResourceSampler.Sample sample = ResourceSampler.parse(Instant.now(), Map.of(
+            "/sys/fs/cgroup/cpuacct/cpuacct.usage", List.of("1500000000"),
+            "/sys/fs/cgroup/memory/memory.usage_in_bytes", List.of("1024"),
+            "/sys/fs/cgroup/blkio/blkio.throttle.io_service_bytes", List.of("8:0 Read 100", "8:0 Write 200", "8:0 Total 300", "Total 300")
+        ));
+
+        assertThat(sample.cpuSeconds(), is(1.5));
+        assertThat(sample.memory(), is(1024L));
+        assertThat(sample.peakMemory(), nullValue());
+        assertThat(sample.diskRead(), is(100L));
+        assertThat(sample.diskWritten(), is(200L));
+        assertThat(sample.networkReceived(), nullValue());
+    }
+
+    @Test
+    void residentMemory() {
+        assertThat(ResourceSampler.residentMemory(List.of("Name:\tcloudquery", "VmHWM:\t   20480 kB", "VmRSS:\t   10240 kB", "Threads:\t12")), is(10L * 1024 * 1024));
+        assertThat(ResourceSampler.residentMemory(List.of("Name:\tkthreadd")), nullValue());
+    }
+}
@@ -0,0 +1,70 @@
+package io.kestra.plugin.cloudquery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+class SchemaFingerprintTest {
+    private static final Map<String, Object> DESTINATION = Map.of(
+        "kind", "destination",
+        "spec", Map.of("name", "postgresql", "path", "cloudquery/postgresql", "version", "v8.0.0", "spec", Map.of("connection_string", "db"))
+    );
+
+    @Test
+    void hash() throws Exception {
+        String hash = SchemaFingerprint.hash(List.of(source("v22.14.0", "2024-01-01"), DESTINATION));
+
+        // the time window of the source and the order of the configurations don't change the tables
+        assertThat(SchemaFingerprint.hash(List.of(DESTINATION, source("v22.14.0", "2024-02-01"))), is(hash));
+        assertThat(SchemaFingerprint.hash(List.of(source("v22.15.0", "2024-01-01"), DESTINATION)), not(hash));
+        assertThat(SchemaFingerprint.hash(List.of(source("v22.14.0", "2024-01-01"), Map.of(
+            "kind", "destination",
+            "spec", Map.of("name", "postgresql", "path", "cloudquery/postgresql", "version", "v8.0.0", "spec", Map.of("connection_string", "other"))
+        ))), not(hash));
+
+        // the credentials and time windows don't change the tables, the other source options can
+        assertThat(SchemaFingerprint.hash(List.of(source("v22.14.0", "2024-01-01", Map.of("secretAccessKey", "rotated")), DESTINATION)), is(hash));
+        assertThat(SchemaFingerprint.hash(List.of(source("v22.14.0", "2024-01-01", lookupEvents("2024-03-01")), DESTINATION)),
+            is(SchemaFingerprint.hash(List.of(source("v22.14.0", "2024-01-01", lookupEvents("2024-04-01")), DESTINATION))));
+        assertThat(SchemaFingerprint.hash(List.of(source("v22.14.0", "2024-01-01", Map.of("use_paid_apis", true)), DESTINATION)), not(hash));
+    }
+
+    @Test
+    void isVolatile() {
+        assertThat(SchemaFingerprint.isVolatile("start_time"), is(true));
+        assertThat(SchemaFingerprint.isVolatile("accessKeyId"), is(true));
+        assertThat(SchemaFingerprint.isVolatile("service-account-key-json"), is(true));
+        assertThat(SchemaFingerprint.isVolatile("use_paid_apis"), is(false));
+        assertThat(SchemaFingerprint.isVolatile("skip_tables"), is(false));
+    }
+
+    private static Map<String, Object> lookupEvents(String startTime) {
+        return Map.of("table_options", Map.of("aws_cloudtrail_events", Map.of("lookup_events", List.of(Map.of("start_time", startTime)))));
+    }
+
+    private static Map<String, Object> source(String version, String startTime) {
+        return source(version, startTime, Map.of());
+    }
+
+    private static Map<String, Object> source(String version, String startTime, Map<String, Object> options) {
+        Map<String, Object> pluginSpec = new HashMap<>(options);
+        pluginSpec.put("start_time", startTime);
+        return Map.of(
+            "kind", "source",
+            "spec", Map.of(
+                "name", "aws",
+                "path", "cloudquery/aws",
+                "version", version,
+                "tables", List.of("aws_s3_buckets"),
+                "destinations", List.of("postgresql"),
+                "spec", pluginSpec
+            )
+        );
+    }
+}
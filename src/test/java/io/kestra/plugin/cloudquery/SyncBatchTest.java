@@ -0,0 +1,114 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.kestra.plugin.scripts.exec.scripts.models.DockerOptions;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.hasSize;
+
+@MicronautTest
+@Testcontainers
+class SyncBatchTest {
+    public static String LOCALSTACK_VERSION = "localstack/localstack:1.4.0";
+    protected static LocalStackContainer localstack;
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @BeforeAll
+    static void startLocalstack() {
+        localstack = new LocalStackContainer(DockerImageName.parse(LOCALSTACK_VERSION));
+        localstack.start();
+    }
+
+    @AfterAll
+    static void stopLocalstack() {
+        if (localstack != null) {
+            localstack.stop();
+        }
+    }
+
+
+    @Test
+    void run() throws Exception {
+        SyncBatch execute = SyncBatch.builder()
+            .id(IdUtils.create())
+            .type(SyncBatch.class.getName())
+            .tenants(List.of(
+                SyncBatch.Tenant.builder().id("first").configs(configs("first")).env(env()).build(),
+                SyncBatch.Tenant.builder().id("second").configs(configs("second")).env(env()).build()
+            ))
+            .concurrency(2)
+            .docker(DockerOptions.builder()
+                .networkMode("host")
+                .build())
+            .build();
+
+        RunContext runContext = TestsUtils.mockRunContext(runContextFactory, execute, Map.of());
+
+        SyncBatch.Output runOutput = execute.run(runContext);
+
+        assertThat(runOutput.getExitCode(), is(0));
+        assertThat(runOutput.getTenants(), hasSize(2));
+        assertThat(runOutput.getTenants().getFirst().getExitCode(), is(0));
+        assertThat(runOutput.getTenants().get(1).getExitCode(), is(0));
+    }
+
+    private static Map<String, String> env() {
+        return Map.of(
+            "AWS_ACCESS_KEY_ID", localstack.getAccessKey(),
+            "AWS_SECRET_ACCESS_KEY", localstack.getSecretKey(),
+            "AWS_DEFAULT_REGION", localstack.getRegion()
+        );
+    }
+
+    private static List<Object> configs(String tenant) {
+        return List.of(
+            Map.of(
+                "kind", "destination",
+                "spec", Map.of(
+                    "name", "file",
+                    "path", "cloudquery/file",
+                    "version", "v3.4.8",
+                    "spec", Map.of(
+                        "path", "./" + tenant + "/{{TABLE}}-{{UUID}}.{{FORMAT}}",
+                        "format", "json"
+                    )
+                )
+            ),
+            Map.of(
+                "kind", "source",
+                "spec", Map.of(
+                    "name", "aws",
+                    "registry", "github",
+                    "path", "cloudquery/aws",
+                    "version", "v22.14.0",
+                    "tables", List.of("aws_s3*"),
+                    "destinations", List.of("file"),
+                    "spec", Map.of(
+                        "regions", List.of(localstack.getRegion()),
+                        "custom_endpoint_url", localstack.getEndpoint().toString(),
+                        "custom_endpoint_hostname_immutable", true,
+                        "custom_endpoint_partition_id", "aws",
+                        "custom_endpoint_signing_region", localstack.getRegion(),
+                        "max_retries", "0"
+                    )
+                )
+            )
+        );
+    }
+}
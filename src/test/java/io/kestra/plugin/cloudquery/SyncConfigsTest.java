@@ -0,0 +1,69 @@
+package io.kestra.plugin.cloudquery;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@MicronautTest
+class SyncConfigsTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void parseIsCached() throws Exception {
+        Sync task = Sync.builder()
+            .id(IdUtils.create())
+            .type(Sync.class.getName())
+            .configs(List.of())
+            .build();
+        RunContext runContext = TestsUtils.mockRunContext(runContextFactory, task, Map.of());
+
+        Path file = Files.createTempFile("source", ".yml");
+        Files.writeString(file, """
+            kind: source
+            spec:
+              name: hackernews
+              tables: ["*"]
+            """);
+        URI uri = runContext.storage().putFile(file.toFile());
+
+        Map<String, Object> first = SyncConfigs.parse(runContext, uri);
+        assertThat(SyncConfigs.parse(runContext, uri), sameInstance(first));
+        assertThrows(UnsupportedOperationException.class, () -> first.put("kind", "destination"));
+
+        List<Map<String, Object>> configs = SyncConfigs.read(runContext, List.of(uri.toString()), true);
+        assertThat(((Map<?, ?>) configs.getFirst().get("spec")).containsKey("backend_options"), is(true));
+        assertThat(((Map<?, ?>) first.get("spec")).containsKey("backend_options"), is(false));
+    }
+
+    @Test
+    void write() throws Exception {
+        File file = Files.createTempFile("configs", ".yml").toFile();
+        SyncConfigs.write(file, List.of(
+            Map.of("kind", "source", "spec", Map.of("name", "hackernews")),
+            Map.of("kind", "destination", "spec", Map.of("name", "file"))
+        ));
+
+        try (MappingIterator<Map<String, Object>> documents = SyncConfigs.OBJECT_MAPPER.readerForMapOf(Object.class).readValues(file)) {
+            List<Map<String, Object>> read = documents.readAll();
+            assertThat(read, hasSize(2));
+            assertThat(read.get(1).get("kind"), is("destination"));
+        }
+    }
+}
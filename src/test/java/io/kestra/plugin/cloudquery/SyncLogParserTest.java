@@ -0,0 +1,59 @@
+package io.kestra.plugin.cloudquery;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+class SyncLogParserTest {
+    @Test
+    void parse() {
+        SyncLogParser parser = new SyncLogParser(Instant.parse("2024-05-01T10:00:00Z"));
+
+        assertThat(parser.parse("Loading spec(s) from config.yml").isPresent(), is(false));
+        assertThat(parser.parse("::{\"outputs\":{\"key\":\"value\"}}::").isPresent(), is(false));
+        assertThat(parser.parse("{\"level\":\"info\",\"time\":\"2024-05-01T10:00:01Z\",\"table\":\"aws_s3_buckets\",\"message\":\"table sync started\"}").isPresent(), is(true));
+        parser.parse("{\"level\":\"error\",\"time\":\"2024-05-01T10:00:02Z\",\"table\":\"aws_s3_buckets\",\"message\":\"access denied\"}");
+        parser.parse("{\"level\":\"info\",\"time\":\"2024-05-01T10:00:05Z\",\"table\":\"aws_s3_buckets\",\"resources\":12,\"errors\":1,\"message\":\"table sync finished\"}");
+        parser.parse("{\"level\":\"info\",\"time\":\"2024-05-01T10:00:06Z\",\"table\":\"aws_s3_bucket_policies\",\"resources\":8,\"errors\":0,\"message\":\"table sync finished\"}");
+        parser.parse("{\"level\":\"warn\",\"time\":\"2024-05-01T10:00:07Z\",\"message\":\"slow api\"}");
+
+        SyncSummary summary = parser.summary(Instant.parse("2024-05-01T10:00:10Z"));
+
+        assertThat(summary.getRows(), is(20L));
+        assertThat(summary.getErrors(), is(1L));
+        assertThat(summary.getWarnings(), is(1L));
+        assertThat(summary.getRowsPerSecond(), is(2D));
+        assertThat(summary.getTables().get("aws_s3_buckets").getRows(), is(12L));
+        // the logged error is also counted by the table sync
+        assertThat(summary.getTables().get("aws_s3_buckets").getErrors(), is(1L));
+        assertThat(summary.getTables().get("aws_s3_buckets").getDuration(), is(Duration.ofSeconds(4)));
+    }
+
+    @Test
+    void loggedErrors() {
+        SyncLogParser parser = new SyncLogParser(Instant.parse("2024-05-01T10:00:00Z"));
+
+        parser.parse("{\"level\":\"error\",\"time\":\"2024-05-01T10:00:02Z\",\"table\":\"aws_s3_buckets\",\"message\":\"access denied\"}");
+
+        assertThat(parser.summary(Instant.parse("2024-05-01T10:00:10Z")).getTables().get("aws_s3_buckets").getErrors(), is(1L));
+    }
+
+    @Test
+    void startsAtFirstSyncEvent() throws InterruptedException {
+        SyncLogParser parser = new SyncLogParser();
+
+        parser.parse("{\"level\":\"info\",\"message\":\"downloading plugin\"}");
+        Thread.sleep(200);
+        parser.parse("{\"level\":\"info\",\"message\":\"Start sync\"}");
+        parser.parse("{\"level\":\"info\",\"table\":\"aws_s3_buckets\",\"resources\":12,\"errors\":0,\"message\":\"table sync finished\"}");
+
+        SyncSummary summary = parser.summary();
+        assertThat(summary.getRows(), is(12L));
+        assertThat(summary.getDuration(), lessThan(Duration.ofMillis(200)));
+    }
+}
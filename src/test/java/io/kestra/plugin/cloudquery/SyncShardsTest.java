@@ -0,0 +1,78 @@
+package io.kestra.plugin.cloudquery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class SyncShardsTest {
+    private static final Map<String, Object> DESTINATION = Map.of(
+        "kind", "destination",
+        "spec", Map.of("name", "file", "path", "cloudquery/file")
+    );
+
+    @Test
+    void split() {
+        List<Map<String, Object>> configs = List.of(
+            DESTINATION,
+            Map.of("kind", "source", "spec", Map.of("name", "aws", "tables", List.of("a", "b", "c"))),
+            Map.of("kind", "source", "spec", Map.of("name", "gcp", "tables", List.of("d", "e")))
+        );
+
+        List<SyncShards.Shard> shards = SyncShards.split(configs, 2);
+
+        assertThat(shards, hasSize(2));
+        assertThat(shards.get(0).tables(), contains("a", "b"));
+        assertThat(shards.get(1).tables(), contains("c", "d", "e"));
+        assertThat(shards.get(0).configs(), hasSize(2));
+        assertThat(shards.get(1).configs(), hasSize(3));
+        assertThat(shards.get(0).configs().getFirst(), is(DESTINATION));
+        assertThat(shards.get(1).stateName("db.sqlite"), is("db-2-of-2.sqlite"));
+        assertThat(shards.get(1).stateName("fingerprint"), is("fingerprint-2-of-2"));
+        assertThat(shards.get(1).outputs(Map.of("out.json", 1)), is(Map.of("shard-2/out.json", 1)));
+        assertThat(SyncShards.stateNames("db.sqlite", 2), contains("db-1-of-2.sqlite", "db-2-of-2.sqlite"));
+        assertThat(SyncShards.stateNames("db.sqlite", 1), contains("db.sqlite"));
+    }
+
+    @Test
+    void stable() {
+        List<Map<String, Object>> configs = List.of(
+            DESTINATION,
+            Map.of("kind", "source", "spec", Map.of("name", "aws", "tables", List.of("f", "a", "b", "c"))),
+            Map.of("kind", "source", "spec", Map.of("name", "gcp", "tables", List.of("e")))
+        );
+
+        List<SyncShards.Shard> shards = SyncShards.split(configs, 2);
+
+        assertThat(shards.get(0).tables(), contains("f", "a", "b"));
+        assertThat(shards.get(1).tables(), contains("c", "e"));
+    }
+
+    @Test
+    void notSplittable() {
+        List<Map<String, Object>> configs = List.of(
+            DESTINATION,
+            Map.of("kind", "source", "spec", Map.of("name", "aws"))
+        );
+
+        List<SyncShards.Shard> shards = SyncShards.split(configs, 4);
+
+        assertThat(shards, hasSize(1));
+        assertThat(shards.getFirst().configs(), hasSize(2));
+        assertThat(shards.getFirst().stateName("db.sqlite"), is("db.sqlite"));
+        assertThat(shards.getFirst().outputs(Map.of("out.json", 1)), is(Map.of("out.json", 1)));
+    }
+
+    @Test
+    void single() {
+        List<Map<String, Object>> configs = List.of(DESTINATION);
+
+        List<SyncShards.Shard> shards = SyncShards.split(configs, 1);
+
+        assertThat(shards, hasSize(1));
+        assertThat(shards.getFirst().stateName("db.sqlite"), is("db.sqlite"));
+    }
+}
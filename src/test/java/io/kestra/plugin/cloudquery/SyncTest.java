@@ -5,7 +5,6 @@ import io.kestra.core.runners.RunContextFactory;
 import io.kestra.core.utils.IdUtils;
 import io.kestra.core.utils.TestsUtils;
 import io.kestra.plugin.scripts.exec.scripts.models.DockerOptions;
-import io.kestra.plugin.scripts.exec.scripts.models.ScriptOutput;
 import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
 import jakarta.inject.Inject;
 import org.junit.jupiter.api.AfterAll;
@@ -96,7 +95,7 @@ class SyncTest {
 
         RunContext runContext = TestsUtils.mockRunContext(runContextFactory, execute, Map.of());
 
-        ScriptOutput runOutput = execute.run(runContext);
+        Sync.Output runOutput = execute.run(runContext);
 
         assertThat(runOutput.getExitCode(), is(0));
     }
@@ -0,0 +1,115 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.kestra.plugin.scripts.exec.scripts.models.DockerOptions;
+import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
+import io.kestra.plugin.scripts.runner.docker.PullPolicy;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Throughput harness syncing the synthetic rows of the {@code cloudquery/test} source, without any remote API.
+ * <p>
+ * Excluded from the default tests, run it with {@code ./gradlew throughputTest} and tune it with the system properties
+ * {@code throughput.clients}, {@code throughput.rows}, {@code throughput.columns}, {@code throughput.tables},
+ * {@code throughput.shards}, {@code throughput.autoTune}, {@code throughput.runner}, {@code throughput.image} and
+ * {@code throughput.pluginCache}.
+ * <p>
+ * The image is only pulled when missing and the plugins are cached in a local directory, so that only the first run
+ * downloads them. The throughput is measured from the first sync event of the CloudQuery logs anyway, so neither the
+ * container start nor the plugin downloads are part of it.
+ */
+@MicronautTest
+@Tag("throughput")
+class SyncThroughputTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void throughput() throws Exception {
+        int clients = Integer.getInteger("throughput.clients", 4);
+        int rows = Integer.getInteger("throughput.rows", 100_000);
+        int columns = Integer.getInteger("throughput.columns", 20);
+        // listed one by one, as shards only split explicit tables and a wildcard would always run in a single shard
+        List<String> tables = List.of(System.getProperty("throughput.tables", "test_some_table,test_paid_table,test_testdata_table").split(","));
+
+        Sync task = Sync.builder()
+            .id(IdUtils.create())
+            .type(Sync.class.getName())
+            .runner(RunnerType.valueOf(System.getProperty("throughput.runner", RunnerType.DOCKER.name())))
+            .docker(DockerOptions.builder()
+                .image(System.getProperty("throughput.image", Sync.DEFAULT_IMAGE))
+                .pullPolicy(PullPolicy.IF_NOT_PRESENT)
+                .build()
+            )
+            .pluginCache(PluginCacheOptions.builder()
+                .type(PluginCacheOptions.Type.LOCAL)
+                .directory(System.getProperty("throughput.pluginCache", Path.of(System.getProperty("java.io.tmpdir"), "cloudquery-throughput-plugins").toString()))
+                .build()
+            )
+            .shards(Integer.getInteger("throughput.shards", 1))
+            .autoTune(Boolean.getBoolean("throughput.autoTune"))
+            .resourceMetrics(true)
+            .configs(List.of(
+                Map.of(
+                    "kind", "source",
+                    "spec", Map.of(
+                        "name", "synthetic",
+                        "path", "cloudquery/test",
+                        "version", "v4.2.1",
+                        "tables", tables,
+                        "destinations", List.of("file"),
+                        "spec", Map.of(
+                            "num_clients", clients,
+                            "num_rows", rows,
+                            "num_cols", columns
+                        )
+                    )
+                ),
+                Map.of(
+                    "kind", "destination",
+                    "spec", Map.of(
+                        "name", "file",
+                        "path", "cloudquery/file",
+                        "version", "v3.4.8",
+                        "spec", Map.of(
+                            "path", "./synthetic/{{TABLE}}/{{UUID}}.{{FORMAT}}",
+                            "format", "json"
+                        )
+                    )
+                )
+            ))
+            .build();
+
+        RunContext runContext = TestsUtils.mockRunContext(runContextFactory, task, Map.of());
+
+        Sync.Output output = task.run(runContext);
+
+        SyncSummary summary = output.getSummary();
+        ResourceUsage resources = output.getResources();
+        runContext.logger().info(
+            "Synced {} rows in {} ({} rows/s), peak memory {} bytes, {} CPU seconds",
+            summary.getRows(),
+            summary.getDuration(),
+            String.format("%.0f", summary.getRowsPerSecond()),
+            resources == null ? null : resources.getPeakMemoryBytes(),
+            resources == null ? null : resources.getCpuSeconds()
+        );
+
+        assertThat(output.getExitCode(), is(0));
+        assertThat(summary.getRows(), greaterThan(0L));
+    }
+}
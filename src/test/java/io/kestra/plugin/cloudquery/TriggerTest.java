@@ -0,0 +1,137 @@
+package io.kestra.plugin.cloudquery;
+
+import io.kestra.core.models.conditions.ConditionContext;
+import io.kestra.core.models.executions.Execution;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.core.utils.IdUtils;
+import io.kestra.core.utils.TestsUtils;
+import io.kestra.plugin.scripts.exec.scripts.models.RunnerType;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@MicronautTest
+class TriggerTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void evaluate() throws Exception {
+        Path fingerprint = Files.createTempFile("fingerprint", ".txt");
+        Files.writeString(fingerprint, "first");
+        Trigger trigger = Trigger.builder()
+            .id(IdUtils.create())
+            .type(Trigger.class.getName())
+            .runner(RunnerType.PROCESS)
+            .commands(List.of("echo \"::{\\\"outputs\\\":{\\\"fingerprint\\\":\\\"$(cat " + fingerprint + ")\\\"}}::\""))
+            .build();
+        Map.Entry<ConditionContext, io.kestra.core.models.triggers.Trigger> context = TestsUtils.mockTrigger(runContextFactory, trigger);
+        RunContext runContext = context.getKey().getRunContext();
+
+        Optional<Execution> execution = trigger.evaluate(context.getKey(), context.getValue());
+        assertThat(execution.isPresent(), is(true));
+        assertThat(execution.get().getTrigger().getVariables().get("fingerprint"), is("first"));
+        assertThat(execution.get().getTrigger().getVariables().get("triggerId"), is(trigger.getId()));
+        runContext.putTaskStateFile("first".getBytes(StandardCharsets.UTF_8), Trigger.STATE_NAME, Trigger.syncedStateName(trigger.getId()));
+
+        Files.writeString(fingerprint, "second");
+        execution = trigger.evaluate(context.getKey(), context.getValue());
+        assertThat(execution.isPresent(), is(true));
+        assertThat(execution.get().getTrigger().getVariables().get("previousFingerprint"), is("first"));
+
+        // the sync of the second fingerprint didn't succeed yet
+        assertThat(trigger.evaluate(context.getKey(), context.getValue()).isPresent(), is(false));
+
+        runContext.putTaskStateFile("second".getBytes(StandardCharsets.UTF_8), Trigger.STATE_NAME, Trigger.syncedStateName(trigger.getId()));
+        assertThat(trigger.evaluate(context.getKey(), context.getValue()).isPresent(), is(false));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void probeConfigs() {
+        List<Map<String, Object>> configs = Trigger.probeConfigs(List.of(
+            Map.of("kind", "source", "spec", Map.of(
+                "name", "aws",
+                "tables", List.of("aws_s3_buckets", "aws_ec2_instances"),
+                "destinations", List.of("postgresql"),
+                "backend_options", SyncConfigs.backendOptions()
+            )),
+            Map.of("kind", "destination", "spec", Map.of("name", "postgresql"))
+        ), null, "v2.4.10");
+
+        assertThat(configs.size(), is(2));
+        Map<String, Object> spec = (Map<String, Object>) configs.getFirst().get("spec");
+        assertThat(spec.get("tables"), is(List.of("aws_s3_buckets")));
+        assertThat(spec.get("destinations"), is(List.of("kestra_probe")));
+        assertThat(spec.containsKey("backend_options"), is(false));
+        assertThat(((Map<String, Object>) configs.getLast().get("spec")).get("name"), is("kestra_probe"));
+        assertThat(((Map<String, Object>) configs.getLast().get("spec")).get("version"), is("v2.4.10"));
+
+        assertThrows(IllegalArgumentException.class, () -> Trigger.probeConfigs(List.of(
+            Map.of("kind", "source", "spec", Map.of("name", "aws", "tables", List.of("*")))
+        ), null, "v2.4.10"));
+    }
+
+    @Test
+    void fingerprint() throws Exception {
+        Path first = database(
+            "INSERT INTO aws_s3_buckets VALUES ('a', 'sync-1', 'eu-west-1')",
+            "INSERT INTO aws_s3_buckets VALUES ('b', 'sync-1', 'us-east-1')"
+        );
+        // same rows, in another order and from another sync
+        Path second = database(
+            "INSERT INTO aws_s3_buckets VALUES ('b', 'sync-2', 'us-east-1')",
+            "INSERT INTO aws_s3_buckets VALUES ('a', 'sync-2', 'eu-west-1')"
+        );
+        Path third = database(
+            "INSERT INTO aws_s3_buckets VALUES ('a', 'sync-3', 'eu-west-1')",
+            "INSERT INTO aws_s3_buckets VALUES ('c', 'sync-3', 'us-east-1')"
+        );
+
+        Trigger.Probe probe = Trigger.fingerprint(first);
+        assertThat(probe.rows(), is(2L));
+        assertThat(Trigger.fingerprint(second).fingerprint(), is(probe.fingerprint()));
+        assertThat(Trigger.fingerprint(third).fingerprint(), not(probe.fingerprint()));
+    }
+
+    @Test
+    void backoff() {
+        Trigger trigger = Trigger.builder()
+            .id("probe")
+            .type(Trigger.class.getName())
+            .interval(Duration.ofMinutes(5))
+            .maxInterval(Duration.ofMinutes(30))
+            .build();
+
+        assertThat(trigger.backoff(null), is(Duration.ofMinutes(10)));
+        assertThat(trigger.backoff(Duration.ofMinutes(10)), is(Duration.ofMinutes(20)));
+        assertThat(trigger.backoff(Duration.ofMinutes(20)), is(Duration.ofMinutes(30)));
+    }
+
+    private static Path database(String... inserts) throws Exception {
+        Path file = Files.createTempFile("probe", ".sqlite");
+        try (Connection connection = IncrementalCheckpoint.connect(file);
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE aws_s3_buckets (name TEXT, _cq_sync_time TEXT, region TEXT)");
+            for (String insert : inserts) {
+                statement.executeUpdate(insert);
+            }
+        }
+        return file;
+    }
+}